@@ -0,0 +1,326 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Policy;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 批量扫描、导出缓存内容
+ * <p>
+ * 直接遍历 cache.asMap() 会为每个元素创建迭代器 Entry 对象，并且 get 会记录读操作、影响驱逐顺序，与线上流量竞争。
+ * 这里遍历的是 asMap().keySet() 的 Spliterator，它按 ConcurrentHashMap 的数组区间切分，可以交给 fork/join 并行处理；
+ * value 通过 {@link Policy#getIfPresentQuietly} 读取，不会写入 ReadBuffer、不改变频率和访问顺序，也不计入命中率统计。
+ * key 的过滤在读取 value 之前完成，被过滤掉的元素不产生任何额外对象；只需要 key 时使用 {@link #keyStream}、{@link #keyPublisher}，
+ * 不会为每个元素创建 Entry
+ * <p>
+ * 使用方式：
+ * <pre>{@code
+ * CacheScanner.of(cache).keyPrefix("user:").order(Order.HOTTEST).limit(1000).forEach((k, v) -> ...);
+ * CacheScanner.of(cache).publisher(executor).subscribe(subscriber);
+ * }</pre>
+ */
+public final class CacheScanner<K, V> {
+
+    // 扫描顺序，HOTTEST 和 COLDEST 依赖驱逐策略（或 expireAfterAccess）维护的顺序，无法并行切分
+    public enum Order {
+        NONE, HOTTEST, COLDEST
+    }
+
+    // 有序扫描在驱逐锁中复制 key，必须通过 limit 指定不超过该值的数量，限制持锁时间
+    public static final long MAX_ORDERED_LIMIT = 10_000;
+
+    private final Cache<K, V> cache;
+
+    private final Predicate<? super K> filter;
+
+    private final Order order;
+
+    private final long limit;
+
+    private CacheScanner(Cache<K, V> cache, Predicate<? super K> filter, Order order, long limit) {
+        this.cache = cache;
+        this.filter = filter;
+        this.order = order;
+        this.limit = limit;
+    }
+
+    public static <K, V> CacheScanner<K, V> of(Cache<K, V> cache) {
+        return new CacheScanner<>(Objects.requireNonNull(cache), k -> true, Order.NONE, Long.MAX_VALUE);
+    }
+
+    public CacheScanner<K, V> filter(Predicate<? super K> predicate) {
+        Objects.requireNonNull(predicate);
+        Predicate<? super K> current = filter;
+        return new CacheScanner<>(cache, k -> current.test(k) && predicate.test(k), order, limit);
+    }
+
+    // 只保留 String 类型且以 prefix 开头的 key
+    public CacheScanner<K, V> keyPrefix(String prefix) {
+        Objects.requireNonNull(prefix);
+        return filter(k -> k instanceof String && ((String) k).startsWith(prefix));
+    }
+
+    public CacheScanner<K, V> order(Order order) {
+        return new CacheScanner<>(cache, filter, Objects.requireNonNull(order), limit);
+    }
+
+    public CacheScanner<K, V> limit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit: " + limit);
+        }
+        return new CacheScanner<>(cache, filter, order, limit);
+    }
+
+    // 不创建 Entry 对象的遍历
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Spliterator<K> keys = scanKeys();
+        Policy<K, V> policy = cache.policy();
+        long[] remaining = {limit};
+        while (remaining[0] > 0 && keys.tryAdvance(key -> {
+            V value = policy.getIfPresentQuietly(key);
+            if (value != null) {
+                remaining[0]--;
+                action.accept(key, value);
+            }
+        })) {
+            // 继续遍历
+        }
+    }
+
+    // 在指定的 ForkJoinPool 中并行遍历，每个任务处理 ConcurrentHashMap 数组中的一段区间，不支持 limit 和排序
+    public void parallelForEach(ForkJoinPool pool, BiConsumer<? super K, ? super V> action) {
+        checkParallel();
+        Policy<K, V> policy = cache.policy();
+        pool.submit(() -> StreamSupport.stream(scanKeys(), true).forEach(key -> {
+            V value = policy.getIfPresentQuietly(key);
+            if (value != null) {
+                action.accept(key, value);
+            }
+        })).join();
+    }
+
+    public Spliterator<Map.Entry<K, V>> spliterator() {
+        return new PresentSpliterator<K, V, Map.Entry<K, V>>(scanKeys(), cache.policy(), limit,
+                AbstractMap.SimpleImmutableEntry::new);
+    }
+
+    // 只返回 key 的 Spliterator，同样跳过已被删除或过期的元素，但不创建 Entry 对象
+    public Spliterator<K> keySpliterator() {
+        return new PresentSpliterator<K, V, K>(scanKeys(), cache.policy(), limit, (key, value) -> key);
+    }
+
+    public Stream<Map.Entry<K, V>> stream(boolean parallel) {
+        if (parallel) {
+            checkParallel();
+        }
+        return StreamSupport.stream(spliterator(), parallel);
+    }
+
+    public Stream<K> keyStream(boolean parallel) {
+        if (parallel) {
+            checkParallel();
+        }
+        return StreamSupport.stream(keySpliterator(), parallel);
+    }
+
+    // 冷发布者，每个订阅者都会从头开始扫描，每批最多发送 batchSize 个元素后让出线程
+    public Flow.Publisher<Map.Entry<K, V>> publisher(Executor executor) {
+        return publisher(executor, 1024);
+    }
+
+    public Flow.Publisher<Map.Entry<K, V>> publisher(Executor executor, int batchSize) {
+        Objects.requireNonNull(executor);
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize: " + batchSize);
+        }
+        return subscriber -> {
+            Objects.requireNonNull(subscriber);
+            new ScanSubscription<>(subscriber, executor, batchSize, this::spliterator).start();
+        };
+    }
+
+    // 只发送 key 的冷发布者
+    public Flow.Publisher<K> keyPublisher(Executor executor, int batchSize) {
+        Objects.requireNonNull(executor);
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize: " + batchSize);
+        }
+        return subscriber -> {
+            Objects.requireNonNull(subscriber);
+            new ScanSubscription<>(subscriber, executor, batchSize, this::keySpliterator).start();
+        };
+    }
+
+    private void checkParallel() {
+        if (order != Order.NONE || limit != Long.MAX_VALUE) {
+            throw new UnsupportedOperationException("parallel scan does not support order or limit");
+        }
+    }
+
+    private Spliterator<K> scanKeys() {
+        if (order == Order.NONE) {
+            Spliterator<K> keys = cache.asMap().keySet().spliterator();
+            return new FilteringSpliterator<>(keys, filter);
+        }
+        return orderedKeys().spliterator();
+    }
+
+    /**
+     * 按热度顺序收集 key。Caffeine 在驱逐锁中执行 hottest/coldest 的遍历，期间写入的维护任务无法执行，
+     * 所以这里只复制过滤后的 key，value 在之后的遍历中再读取；复制的数量受 limit 限制，
+     * 不允许不带 limit 的有序扫描把整个缓存复制一遍。过滤条件很严格时可能遍历很多元素才能凑够 limit 个，持锁时间也会随之增加
+     */
+    private List<K> orderedKeys() {
+        if (limit > MAX_ORDERED_LIMIT) {
+            throw new UnsupportedOperationException("ordered scan requires limit(n) with n <= " + MAX_ORDERED_LIMIT);
+        }
+        Function<Stream<Policy.CacheEntry<K, V>>, List<K>> collect = entries -> entries
+                .map(Map.Entry::getKey)
+                .filter(filter)
+                .limit(limit)
+                .collect(Collectors.toCollection(ArrayList::new));
+        Policy<K, V> policy = cache.policy();
+        Optional<Policy.Eviction<K, V>> eviction = policy.eviction();
+        if (eviction.isPresent()) {
+            return order == Order.HOTTEST ? eviction.get().hottest(collect) : eviction.get().coldest(collect);
+        }
+        Optional<Policy.FixedExpiration<K, V>> expireAfterAccess = policy.expireAfterAccess();
+        if (expireAfterAccess.isPresent()) {
+            // 最近访问的元素最晚过期
+            return order == Order.HOTTEST ? expireAfterAccess.get().youngest(collect) : expireAfterAccess.get().oldest(collect);
+        }
+        throw new UnsupportedOperationException("ordered scan requires maximumSize, maximumWeight or expireAfterAccess");
+    }
+
+    // 在 key 的 Spliterator 上执行过滤，切分时保留过滤条件
+    private static final class FilteringSpliterator<K> extends Spliterators.AbstractSpliterator<K> implements Consumer<K> {
+
+        private final Spliterator<K> keys;
+
+        private final Predicate<? super K> filter;
+
+        private K current;
+
+        FilteringSpliterator(Spliterator<K> keys, Predicate<? super K> filter) {
+            super(keys.estimateSize(), keys.characteristics() & ~(SIZED | SUBSIZED));
+            this.keys = keys;
+            this.filter = filter;
+        }
+
+        @Override
+        public void accept(K key) {
+            current = key;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super K> action) {
+            while (keys.tryAdvance(this)) {
+                K key = current;
+                current = null;
+                if (filter.test(key)) {
+                    action.accept(key);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super K> action) {
+            keys.forEachRemaining(key -> {
+                if (filter.test(key)) {
+                    action.accept(key);
+                }
+            });
+        }
+
+        @Override
+        public Spliterator<K> trySplit() {
+            Spliterator<K> split = keys.trySplit();
+            return split == null ? null : new FilteringSpliterator<>(split, filter);
+        }
+
+        @Override
+        public long estimateSize() {
+            return keys.estimateSize();
+        }
+    }
+
+    // 读取 value 后由 mapper 组装结果（Entry 或 key），已被删除或过期的元素会被跳过
+    private static final class PresentSpliterator<K, V, T> extends Spliterators.AbstractSpliterator<T>
+            implements Consumer<K> {
+
+        private final Spliterator<K> keys;
+
+        private final Policy<K, V> policy;
+
+        private final BiFunction<? super K, ? super V, ? extends T> mapper;
+
+        private long remaining;
+
+        private K current;
+
+        PresentSpliterator(Spliterator<K> keys, Policy<K, V> policy, long limit,
+                           BiFunction<? super K, ? super V, ? extends T> mapper) {
+            super(keys.estimateSize(), (keys.characteristics() | NONNULL) & ~(SIZED | SUBSIZED));
+            this.keys = keys;
+            this.policy = policy;
+            this.mapper = mapper;
+            this.remaining = limit;
+        }
+
+        @Override
+        public void accept(K key) {
+            current = key;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (remaining > 0 && keys.tryAdvance(this)) {
+                K key = current;
+                current = null;
+                V value = policy.getIfPresentQuietly(key);
+                if (value != null) {
+                    remaining--;
+                    action.accept(mapper.apply(key, value));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            // 有 limit 时无法在各个分片之间分配剩余数量
+            if (remaining != Long.MAX_VALUE) {
+                return null;
+            }
+            Spliterator<K> split = keys.trySplit();
+            return split == null ? null : new PresentSpliterator<>(split, policy, Long.MAX_VALUE, mapper);
+        }
+
+        @Override
+        public long estimateSize() {
+            return Math.min(keys.estimateSize(), remaining);
+        }
+    }
+}
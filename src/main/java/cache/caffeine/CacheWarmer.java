@@ -0,0 +1,627 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 缓存预热，在服务启动时把数据批量加载到缓存中
+ * <p>
+ * 从 {@link KeySource} 中按顺序读取 key，每 batchSize 个 key 调用一次 {@link CacheLoader#loadAll(Set)}，
+ * 多个批次在 executor（默认为 ForkJoinPool.commonPool()）中并行执行，加载阻塞期间通过 {@link ForkJoinPool#managedBlock} 让线程池补偿线程。
+ * 读取 key 在 Warmup 的锁外执行，同一时刻只有一个线程读取，慢速的文件或分页查询不会阻塞批次完成时的统计。
+ * <ul>
+ *     <li>自适应并发：同时执行的批次数量从 1 开始，按加法增、乘法减（AIMD）调整。批次耗时超过观察到的最小耗时的
+ *     latencyTolerance 倍或加载失败时减半，否则逐步增加，最多为 maxConcurrency</li>
+ *     <li>热点数据：hotSet 中的 key 最先加载，全部加载完成后 {@link Warmup#ready()} 完成，服务可以开始接收流量，
+ *     其余的 key 继续在后台加载</li>
+ *     <li>进度：每个批次完成后回调 progressListener，也可以随时通过 {@link Warmup#progress()} 查看</li>
+ * </ul>
+ * 缓存中已经存在的 key 以及 key 来源中属于正在加载的热点批次的 key 会跳过，加载结果通过 putIfAbsent 写入，
+ * 不会覆盖预热期间业务写入的新值，这种情况计入 skipped 而不是 loaded
+ */
+public final class CacheWarmer<K, V> {
+
+    private final KeySource<K> source;
+
+    private final CacheLoader<? super K, V> loader;
+
+    private final List<K> hotSet;
+
+    private final int batchSize;
+
+    private final int maxConcurrency;
+
+    private final double latencyTolerance;
+
+    private final Executor executor;
+
+    private final Ticker ticker;
+
+    private final Consumer<Progress> progressListener;
+
+    private CacheWarmer(Builder<K, V> builder) {
+        this.source = builder.source;
+        this.loader = builder.loader;
+        this.hotSet = new ArrayList<>(builder.hotSet);
+        this.batchSize = builder.batchSize;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.latencyTolerance = builder.latencyTolerance;
+        this.executor = builder.executor;
+        this.ticker = builder.ticker;
+        this.progressListener = builder.progressListener;
+    }
+
+    public static <K, V> Builder<K, V> newBuilder(KeySource<K> source, CacheLoader<? super K, V> loader) {
+        return new Builder<>(source, loader);
+    }
+
+    // 开始预热，立即返回
+    public Warmup<K, V> start(Cache<K, V> cache) {
+        Warmup<K, V> warmup = new Warmup<>(this, cache);
+        warmup.pump();
+        return warmup;
+    }
+
+    public static final class Warmup<K, V> {
+
+        private final CacheWarmer<K, V> warmer;
+
+        private final Cache<K, V> cache;
+
+        private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+        private final CompletableFuture<Progress> done = new CompletableFuture<>();
+
+        private final long startTime;
+
+        private final Iterator<K> hotKeys;
+
+        // 正在加载的热点 key，在 key 来源中再次出现时跳过，避免重复加载
+        private final Set<K> hotLoading = ConcurrentHashMap.newKeySet();
+
+        // 以下三个字段只由持有 reading 的线程在锁外访问
+        private Stream<K> stream;
+
+        private Iterator<K> keys;
+
+        private long readSkipped;
+
+        // 是否有线程正在锁外读取下一批 key，同一时刻只有一个线程读取
+        private boolean reading;
+
+        private boolean hotPending;
+
+        // 读取期间并发上限被降低时暂存的批次，等其他批次完成后再提交
+        private List<K> pendingBatch;
+
+        private boolean pendingHot;
+
+        private boolean exhausted;
+
+        private boolean cancelled;
+
+        private boolean finished;
+
+        private Throwable failure;
+
+        private int inFlight;
+
+        // 已经读取但尚未完成的热点批次
+        private int hotInFlight;
+
+        // 并发上限，小数部分用于加法增
+        private double limit = 1;
+
+        private boolean slowStart = true;
+
+        private long minLatency = Long.MAX_VALUE;
+
+        // 每次减半后加 1，减半之前提交的批次不会再次减半
+        private int epoch;
+
+        private long loaded;
+
+        private long skipped;
+
+        private long missing;
+
+        private long failed;
+
+        private long batches;
+
+        private Warmup(CacheWarmer<K, V> warmer, Cache<K, V> cache) {
+            this.warmer = warmer;
+            this.cache = cache;
+            this.startTime = warmer.ticker.read();
+            this.hotKeys = warmer.hotSet.iterator();
+            this.hotPending = hotKeys.hasNext();
+        }
+
+        // 热点数据加载完成时完成，热点数据加载失败或预热被取消时异常完成
+        public CompletableFuture<Void> ready() {
+            return ready;
+        }
+
+        // 所有 key 加载完成时完成，读取 key 失败时异常完成，单个批次加载失败只计入 failed
+        public CompletableFuture<Progress> done() {
+            return done;
+        }
+
+        // 不再提交新的批次，已经提交的批次执行完成后 done 完成
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+            }
+            ready.completeExceptionally(new CancellationException("warm-up cancelled"));
+            pump();
+        }
+
+        public synchronized Progress progress() {
+            return progress(done.isDone());
+        }
+
+        private Progress progress(boolean finished) {
+            return new Progress(loaded, skipped, missing, failed, batches, inFlight, (int) limit,
+                    ready.isDone(), finished, TimeUnit.NANOSECONDS.toMillis(warmer.ticker.read() - startTime));
+        }
+
+        /**
+         * 在并发上限内提交批次，由 start 和每个批次完成后调用。
+         * 读取 key 可能是文件 I/O 或分页查询，在锁外执行，读取完成后在锁中重新检查取消和并发上限再提交
+         */
+        private void pump() {
+            while (true) {
+                boolean hot;
+                synchronized (this) {
+                    if (pendingBatch != null && !cancelled && inFlight < (int) limit) {
+                        submit(pendingBatch, pendingHot);
+                        pendingBatch = null;
+                        continue;
+                    }
+                    if (reading || pendingBatch != null || cancelled || exhausted || inFlight >= (int) limit) {
+                        break;
+                    }
+                    reading = true;
+                    hot = hotPending;
+                }
+
+                List<K> batch = null;
+                boolean hotRemaining = false;
+                RuntimeException error = null;
+                try {
+                    batch = hot ? nextBatch(hotKeys, false) : nextBatch(keys(), true);
+                    hotRemaining = hot && hotKeys.hasNext();
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+
+                synchronized (this) {
+                    reading = false;
+                    skipped += readSkipped;
+                    readSkipped = 0;
+                    if (error != null) {
+                        failure = error;
+                        exhausted = true;
+                        continue;
+                    }
+                    if (hot) {
+                        hotPending = hotRemaining;
+                    }
+                    if (batch.isEmpty()) {
+                        exhausted = !hot;
+                        continue;
+                    }
+                    if (hot) {
+                        hotInFlight++;
+                        hotLoading.addAll(batch);
+                    }
+                    if (inFlight < (int) limit && !cancelled) {
+                        submit(batch, hot);
+                    } else {
+                        pendingBatch = batch;
+                        pendingHot = hot;
+                    }
+                }
+            }
+
+            boolean hotLoaded;
+            Progress snapshot = null;
+            synchronized (this) {
+                if (cancelled && pendingBatch != null && !reading) {
+                    if (pendingHot) {
+                        hotInFlight--;
+                        hotLoading.removeAll(pendingBatch);
+                    }
+                    pendingBatch = null;
+                }
+                // 取消时丢弃的热点批次没有加载，ready 由 cancel 异常完成
+                hotLoaded = !cancelled && !hotPending && hotInFlight == 0;
+                if ((exhausted || cancelled) && inFlight == 0 && !reading && pendingBatch == null && !finished) {
+                    finished = true;
+                    if (stream != null) {
+                        stream.close();
+                    }
+                    snapshot = progress(true);
+                }
+            }
+            if (hotLoaded) {
+                ready.complete(null);
+            }
+            if (snapshot != null) {
+                if (failure != null) {
+                    ready.completeExceptionally(failure);
+                    done.completeExceptionally(failure);
+                } else {
+                    done.complete(snapshot);
+                }
+            }
+        }
+
+        // 在锁中调用
+        private void submit(List<K> batch, boolean hot) {
+            inFlight++;
+            int submittedEpoch = epoch;
+            warmer.executor.execute(() -> load(batch, hot, submittedEpoch));
+        }
+
+        private Iterator<K> keys() {
+            if (keys == null) {
+                try {
+                    stream = warmer.source.open();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                keys = stream.iterator();
+            }
+            return keys;
+        }
+
+        // 跳过缓存中已经存在的 key，以及 key 来源中属于正在加载的热点批次的 key
+        private List<K> nextBatch(Iterator<K> iterator, boolean fromSource) {
+            Set<K> batch = new LinkedHashSet<>();
+            while (batch.size() < warmer.batchSize && iterator.hasNext()) {
+                K key = iterator.next();
+                if ((fromSource && hotLoading.contains(key)) || cache.policy().getIfPresentQuietly(key) != null) {
+                    readSkipped++;
+                } else {
+                    batch.add(key);
+                }
+            }
+            return new ArrayList<>(batch);
+        }
+
+        private void load(List<K> batch, boolean hot, int submittedEpoch) {
+            long start = warmer.ticker.read();
+            Throwable error = null;
+            Map<?, ? extends V> result = null;
+            try {
+                LoadBlocker<K, V> blocker = new LoadBlocker<>(warmer, batch);
+                ForkJoinPool.managedBlock(blocker);
+                result = blocker.result;
+            } catch (InterruptedException e) {
+                // 线程池关闭时中断，恢复中断标记，由线程池决定是否退出
+                Thread.currentThread().interrupt();
+                error = e;
+            } catch (Throwable t) {
+                error = t;
+            }
+
+            long found = 0;
+            long present = 0;
+            if (result != null) {
+                for (K key : batch) {
+                    V value = result.get(key);
+                    if (value == null) {
+                        continue;
+                    }
+                    // 加载期间业务已经写入了新值
+                    if (cache.asMap().putIfAbsent(key, value) == null) {
+                        found++;
+                    } else {
+                        present++;
+                    }
+                }
+            }
+            if (hot) {
+                hotLoading.removeAll(batch);
+            }
+            long latency = warmer.ticker.read() - start;
+            Progress snapshot;
+            synchronized (this) {
+                batches++;
+                inFlight--;
+                if (hot) {
+                    hotInFlight--;
+                }
+                if (error == null) {
+                    loaded += found;
+                    skipped += present;
+                    missing += batch.size() - found - present;
+                } else {
+                    failed += batch.size();
+                }
+                adjust(submittedEpoch, latency, error != null);
+                snapshot = progress();
+            }
+            if (error != null && hot) {
+                ready.completeExceptionally(new CompletionException("failed to load hot set", error));
+            }
+            // 在 done 完成之前回调最后一个批次的进度，回调抛出异常时也要继续提交，否则 done 和 ready 永远不会完成
+            try {
+                if (warmer.progressListener != null) {
+                    warmer.progressListener.accept(snapshot);
+                }
+            } finally {
+                pump();
+            }
+        }
+
+        /**
+         * 调整并发上限：
+         * 慢启动阶段每个正常批次加 1，相当于每轮翻倍；之后每个正常批次加 1 / limit，相当于每轮加 1。
+         * 批次变慢或失败时减半并结束慢启动，减半之前提交的批次不会重复减半。
+         * 最小耗时会缓慢向实际耗时靠拢，数据源整体变慢后不会一直停留在最低并发
+         */
+        private void adjust(int submittedEpoch, long latency, boolean error) {
+            if (!error) {
+                minLatency = latency < minLatency ? latency : minLatency + (latency - minLatency) / 64;
+            }
+            if (error || latency > minLatency * warmer.latencyTolerance) {
+                slowStart = false;
+                if (submittedEpoch == epoch) {
+                    limit = Math.max(1, limit / 2);
+                    epoch++;
+                }
+            } else if (slowStart) {
+                limit = Math.min(warmer.maxConcurrency, limit + 1);
+            } else {
+                limit = Math.min(warmer.maxConcurrency, limit + 1 / limit);
+            }
+        }
+    }
+
+    // 在 ForkJoinPool 中执行阻塞的加载，使线程池可以创建补偿线程
+    private static final class LoadBlocker<K, V> implements ForkJoinPool.ManagedBlocker {
+
+        private final CacheWarmer<K, V> warmer;
+
+        private final List<K> batch;
+
+        private Map<?, ? extends V> result;
+
+        private LoadBlocker(CacheWarmer<K, V> warmer, List<K> batch) {
+            this.warmer = warmer;
+            this.batch = batch;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            try {
+                result = warmer.loadAll(batch);
+            } catch (InterruptedException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return result != null;
+        }
+    }
+
+    // 没有实现 loadAll 时逐个调用 load
+    @SuppressWarnings("unchecked")
+    private Map<?, ? extends V> loadAll(List<K> batch) throws Exception {
+        CacheLoader<K, V> cacheLoader = (CacheLoader<K, V>) loader;
+        try {
+            return cacheLoader.loadAll(new LinkedHashSet<>(batch));
+        } catch (UnsupportedOperationException e) {
+            Map<K, V> result = new HashMap<>();
+            for (K key : batch) {
+                V value = cacheLoader.load(key);
+                if (value != null) {
+                    result.put(key, value);
+                }
+            }
+            return result;
+        }
+    }
+
+    public static final class Builder<K, V> {
+
+        private final KeySource<K> source;
+
+        private final CacheLoader<? super K, V> loader;
+
+        private Collection<K> hotSet = List.of();
+
+        private int batchSize = 100;
+
+        private int maxConcurrency = 16;
+
+        private double latencyTolerance = 2.0;
+
+        private Executor executor = ForkJoinPool.commonPool();
+
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Consumer<Progress> progressListener;
+
+        private Builder(KeySource<K> source, CacheLoader<? super K, V> loader) {
+            this.source = Objects.requireNonNull(source);
+            this.loader = Objects.requireNonNull(loader);
+        }
+
+        // 最先加载的热点 key，加载完成后 ready 完成
+        public Builder<K, V> hotSet(Collection<K> hotSet) {
+            this.hotSet = Objects.requireNonNull(hotSet);
+            return this;
+        }
+
+        public Builder<K, V> batchSize(int batchSize) {
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("batchSize: " + batchSize);
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        // 同时执行的批次数量上限
+        public Builder<K, V> maxConcurrency(int maxConcurrency) {
+            if (maxConcurrency <= 0) {
+                throw new IllegalArgumentException("maxConcurrency: " + maxConcurrency);
+            }
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        // 批次耗时超过最小耗时的多少倍时认为数据源压力过大
+        public Builder<K, V> latencyTolerance(double latencyTolerance) {
+            if (!(latencyTolerance > 1)) {
+                throw new IllegalArgumentException("latencyTolerance: " + latencyTolerance);
+            }
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+
+        public Builder<K, V> pool(ForkJoinPool pool) {
+            return executor(pool);
+        }
+
+        // 执行批次的线程池，不是 ForkJoinPool 时 managedBlock 直接在当前线程中阻塞
+        public Builder<K, V> executor(Executor executor) {
+            this.executor = Objects.requireNonNull(executor);
+            return this;
+        }
+
+        // 测量批次耗时使用的时间源，测试中可以使用虚拟时间
+        public Builder<K, V> ticker(Ticker ticker) {
+            this.ticker = Objects.requireNonNull(ticker);
+            return this;
+        }
+
+        // 每个批次完成后在执行该批次的线程中回调
+        public Builder<K, V> progressListener(Consumer<Progress> progressListener) {
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        public CacheWarmer<K, V> build() {
+            return new CacheWarmer<>(this);
+        }
+    }
+
+    public static final class Progress {
+
+        private final long loaded;
+
+        private final long skipped;
+
+        private final long missing;
+
+        private final long failed;
+
+        private final long batches;
+
+        private final int inFlight;
+
+        private final int concurrency;
+
+        private final boolean ready;
+
+        private final boolean done;
+
+        private final long elapsedMillis;
+
+        private Progress(long loaded, long skipped, long missing, long failed, long batches, int inFlight,
+                         int concurrency, boolean ready, boolean done, long elapsedMillis) {
+            this.loaded = loaded;
+            this.skipped = skipped;
+            this.missing = missing;
+            this.failed = failed;
+            this.batches = batches;
+            this.inFlight = inFlight;
+            this.concurrency = concurrency;
+            this.ready = ready;
+            this.done = done;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        // 写入缓存的 key 数量
+        public long loaded() {
+            return loaded;
+        }
+
+        // 跳过的 key 数量：缓存中已经存在、属于正在加载的热点批次，或者加载完成时已经被业务写入
+        public long skipped() {
+            return skipped;
+        }
+
+        // loadAll 没有返回的 key 数量
+        public long missing() {
+            return missing;
+        }
+
+        // 所在批次加载失败的 key 数量
+        public long failed() {
+            return failed;
+        }
+
+        public long batches() {
+            return batches;
+        }
+
+        public int inFlight() {
+            return inFlight;
+        }
+
+        // 当前的并发上限
+        public int concurrency() {
+            return concurrency;
+        }
+
+        public boolean ready() {
+            return ready;
+        }
+
+        public boolean done() {
+            return done;
+        }
+
+        public long elapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Progress{loaded=%d, skipped=%d, missing=%d, failed=%d, batches=%d, inFlight=%d, "
+                            + "concurrency=%d, ready=%s, done=%s, elapsed=%dms}", loaded, skipped, missing, failed,
+                    batches, inFlight, concurrency, ready, done, elapsedMillis);
+        }
+    }
+}
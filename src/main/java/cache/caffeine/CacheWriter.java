@@ -0,0 +1,15 @@
+package cache.caffeine;
+
+import java.util.Map;
+
+/**
+ * {@link WriteBehindCache} 刷写脏数据的目标存储，如数据库
+ * <p>
+ * 同一个 key 的多次写入会被合并，每批中每个 key 只出现一次，value 为最新值。
+ * 抛出异常时整批数据保留为脏数据，在下次刷写时重试，所以实现需要是幂等的
+ */
+@FunctionalInterface
+public interface CacheWriter<K, V> {
+
+    void writeAll(Map<K, V> entries) throws Exception;
+}
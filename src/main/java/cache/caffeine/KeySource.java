@@ -0,0 +1,94 @@
+package cache.caffeine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@link CacheWarmer} 预热的 key 来源
+ * <p>
+ * 每次预热调用一次 open，按顺序读取，预热结束或取消后关闭。key 以流的方式读取，不需要一次性放入内存
+ */
+@FunctionalInterface
+public interface KeySource<K> {
+
+    Stream<K> open() throws IOException;
+
+    static <K> KeySource<K> of(Iterable<K> keys) {
+        return () -> StreamSupport.stream(keys.spliterator(), false);
+    }
+
+    // 只能使用一次的迭代器
+    static <K> KeySource<K> of(Iterator<K> keys) {
+        return () -> StreamSupport.stream(Spliterators.spliteratorUnknownSize(keys, Spliterator.ORDERED), false);
+    }
+
+    // 每行一个 key，忽略空行
+    static <K> KeySource<K> lines(Path file, Function<String, K> parser) {
+        return () -> Files.lines(file)
+                .map(String::trim)
+                .filter(line -> !line.isEmpty())
+                .map(parser);
+    }
+
+    /**
+     * 分页查询，如从数据库中按主键顺序查询热点数据的 key。after 为上一页的最后一个 key，第一页为 null，
+     * 返回的数量少于 pageSize 时结束
+     */
+    static <K> KeySource<K> paged(int pageSize, Query<K> query) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize: " + pageSize);
+        }
+        return () -> StreamSupport.stream(Spliterators.spliteratorUnknownSize(new Iterator<List<K>>() {
+
+            private List<K> page;
+
+            private boolean last;
+
+            @Override
+            public boolean hasNext() {
+                if (page == null && !last) {
+                    try {
+                        page = query.next(null, pageSize);
+                    } catch (Exception e) {
+                        throw new IllegalStateException("query failed", e);
+                    }
+                    last = page.size() < pageSize;
+                }
+                return page != null && !page.isEmpty();
+            }
+
+            @Override
+            public List<K> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<K> current = page;
+                page = null;
+                if (!last) {
+                    try {
+                        page = query.next(current.get(current.size() - 1), pageSize);
+                    } catch (Exception e) {
+                        throw new IllegalStateException("query failed", e);
+                    }
+                    last = page.size() < pageSize;
+                }
+                return current;
+            }
+        }, Spliterator.ORDERED), false).flatMap(List::stream);
+    }
+
+    @FunctionalInterface
+    interface Query<K> {
+
+        List<K> next(K after, int pageSize) throws Exception;
+    }
+}
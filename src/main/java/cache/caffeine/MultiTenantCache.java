@@ -0,0 +1,619 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Weigher;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 多租户共享的缓存
+ * <p>
+ * 所有租户的元素保存在同一个 Caffeine 实例中，整体容量由 maximumWeight 限制，每个租户额外配置：
+ * <ul>
+ *     <li>min：保底容量，其他租户的写入不会挤占这部分容量</li>
+ *     <li>max：容量上限，超过后只能淘汰自己的元素</li>
+ * </ul>
+ * 与静态分区相比，空闲租户未使用的容量（超出保底的部分）可以被活跃租户使用。
+ * <p>
+ * 写入时的准入规则：租户使用量不超过 min 时直接写入；否则只有在不超过 max、并且共享容量（总容量减去其他租户尚未用满的保底容量）足够时才能写入，
+ * 不满足时由该租户淘汰自己的元素腾出空间，这样吵闹的租户只会淘汰自己的数据。
+ * 租户内的淘汰参考 W-TinyLFU 的准入策略：按写入顺序取出候选的淘汰元素，通过 {@link FrequencySketch} 比较新元素与淘汰元素的访问频率，
+ * 旧元素频率更高时拒绝写入并把旧元素移到队尾，否则淘汰旧元素，避免一次性的扫描流量冲掉热点数据
+ * <p>
+ * 准入检查与使用量的更新不是原子的，并发写入时可能短暂超出配额，Caffeine 的 maximumWeight 作为总容量的兜底
+ * <p>
+ * 租户内的写入顺序队列是 Caffeine 驱逐策略之外的第二套结构：Caffeine 只维护全局的访问顺序，Policy 也只能按全局顺序取出候选，
+ * 无法只在某个租户的元素中选择淘汰对象，weigher 和 evictionListener 只能观察到驱逐，不能指定驱逐谁。
+ * 两套结构通过以下方式保持一致：元素被 Caffeine 驱逐、过期或被删除时在同一个 compute 中标记为 removed 并扣减使用量，
+ * 队列中标记过的元素在选择淘汰候选时顺便移除，数量过多时整体清理，所以队列只会延迟而不会长期残留已删除的元素
+ * <p>
+ * 租户在第一次写入时按默认配额注册，或者在 Builder 中显式配置；读取未注册的租户直接视为未命中，不会占用保底容量。
+ * 不再使用的租户通过 {@link #deregister} 移除
+ */
+public final class MultiTenantCache<K, V> {
+
+    // 每次写入最多检查的淘汰候选数量
+    private static final int MAX_VICTIM_SCAN = 8;
+
+    private final Cache<TenantKey<K>, Node<K, V>> cache;
+
+    private final Weigher<? super K, ? super V> weigher;
+
+    private final long capacity;
+
+    private final ConcurrentHashMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+
+    private final long defaultMin;
+
+    private final long defaultMax;
+
+    private final FrequencySketch sketch;
+
+    // 所有租户的使用量
+    private final AtomicLong weightedSize = new AtomicLong();
+
+    // 所有租户已分配的保底容量之和
+    private final AtomicLong guaranteed = new AtomicLong();
+
+    // 所有租户尚未用满的保底容量之和，即 Σ max(0, min - weight)
+    private final AtomicLong reserved = new AtomicLong();
+
+    private MultiTenantCache(Builder<K, V> builder, Caffeine<Object, Object> caffeine) {
+        this.weigher = builder.weigher;
+        this.capacity = builder.maximumWeight;
+        this.defaultMin = builder.defaultMin;
+        this.defaultMax = builder.defaultMax;
+        this.sketch = new FrequencySketch(builder.expectedEntries > 0
+                ? builder.expectedEntries : Math.min(capacity, 1 << 20));
+        this.cache = caffeine
+                .maximumWeight(capacity)
+                .weigher((TenantKey<K> key, Node<K, V> node) -> node.weight)
+                .evictionListener(this::onEviction)
+                .build();
+        for (Map.Entry<String, long[]> quota : builder.quotas.entrySet()) {
+            register(quota.getKey(), quota.getValue()[0], quota.getValue()[1]);
+        }
+    }
+
+    public static <K, V> Builder<K, V> newBuilder(long maximumWeight) {
+        return new Builder<>(maximumWeight);
+    }
+
+    public V getIfPresent(String tenant, K key) {
+        TenantKey<K> tenantKey = new TenantKey<>(tenant, key);
+        sketch.increment(tenantKey);
+        Tenant t = tenants.get(tenant);
+        if (t == null) {
+            return null;
+        }
+        Node<K, V> node = cache.getIfPresent(tenantKey);
+        if (node == null || node.isPending()) {
+            t.misses.increment();
+            return null;
+        }
+        t.hits.increment();
+        return node.value;
+    }
+
+    /**
+     * 获取元素，不存在时加载并尝试写入，加载在调用线程中执行，没有对同一个 key 的并发加载去重；
+     * 加载结果即使没有通过准入也会返回给调用方
+     */
+    public V get(String tenant, K key, Function<? super K, ? extends V> mappingFunction) {
+        V value = getIfPresent(tenant, key);
+        if (value != null) {
+            return value;
+        }
+        value = mappingFunction.apply(key);
+        if (value != null) {
+            admit(new TenantKey<>(tenant, key), value, false);
+        }
+        return value;
+    }
+
+    // 写入元素，返回 false 表示没有通过准入
+    public boolean put(String tenant, K key, V value) {
+        Objects.requireNonNull(value);
+        TenantKey<K> tenantKey = new TenantKey<>(tenant, key);
+        sketch.increment(tenantKey);
+        return admit(tenantKey, value, true);
+    }
+
+    public void invalidate(String tenant, K key) {
+        cache.asMap().computeIfPresent(new TenantKey<>(tenant, key), (k, node) -> {
+            onRemoval(node);
+            return null;
+        });
+    }
+
+    /**
+     * 移除租户并删除它的全部元素，释放它的保底容量，返回租户是否存在。之后对该租户的写入会按默认配额重新注册。
+     * 调用期间并发写入该租户的元素可能残留，它们仍计入总使用量，直到被 Caffeine 驱逐或过期
+     */
+    @SuppressWarnings("unchecked")
+    public boolean deregister(String tenant) {
+        Tenant t = tenants.remove(tenant);
+        if (t == null) {
+            return false;
+        }
+        synchronized (t) {
+            t.retired = true;
+            reserved.addAndGet(-Math.max(0, t.min - t.weight.get()));
+        }
+        guaranteed.addAndGet(-t.min);
+        for (Node<?, ?> queued : t.queue) {
+            Node<K, V> victim = (Node<K, V>) queued;
+            if (!victim.removed) {
+                cache.asMap().computeIfPresent(victim.key, (k, node) -> {
+                    if (node != victim) {
+                        return node;
+                    }
+                    onRemoval(node);
+                    return null;
+                });
+            }
+        }
+        return true;
+    }
+
+    public Stats stats(String tenant) {
+        Tenant t = tenants.get(tenant);
+        return t == null ? null : new Stats(t);
+    }
+
+    public long weightedSize() {
+        return weightedSize.get();
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    public void cleanUp() {
+        cache.cleanUp();
+    }
+
+    private boolean admit(TenantKey<K> key, V value, boolean replace) {
+        Tenant tenant = tenant(key.tenant);
+        int weight = weigher.weigh(key.key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("negative weight: " + weight);
+        }
+        if (weight > tenant.max) {
+            tenant.rejections.increment();
+            return false;
+        }
+        Node<K, V> existing;
+        Node<K, V> pending = null;
+        if (replace) {
+            existing = cache.policy().getIfPresentQuietly(key);
+        } else {
+            // 先写入占位符，元素已经存在时不会写入，也就不会为它淘汰任何元素
+            Node<K, V> placeholder = new Node<>(tenant, key, null, 0);
+            if (cache.asMap().putIfAbsent(key, placeholder) != null) {
+                return true;
+            }
+            existing = null;
+            pending = placeholder;
+        }
+        // 覆盖已有元素时只需要为权重的增量腾出空间
+        int delta = existing == null || existing.isPending() ? weight : weight - existing.weight;
+        if (!makeRoom(tenant, key, delta)) {
+            if (pending != null) {
+                cache.asMap().remove(key, pending);
+            }
+            tenant.rejections.increment();
+            return false;
+        }
+
+        Node<K, V> node = new Node<>(tenant, key, value, weight);
+        Node<K, V> expected = pending;
+        cache.asMap().compute(key, (k, old) -> {
+            if (!replace && old != expected) {
+                // 占位期间已经被 put 覆盖或被 invalidate 删除
+                return old;
+            }
+            if (old != null) {
+                onRemoval(old);
+            }
+            onInsert(node);
+            return node;
+        });
+        return true;
+    }
+
+    private boolean hasRoom(Tenant tenant, long weight) {
+        long usage = tenant.weight.get();
+        if (usage + weight <= tenant.min) {
+            return true;
+        }
+        if (usage + weight > tenant.max) {
+            return false;
+        }
+        // 自己未用满的保底容量可以使用，其他租户未用满的保底容量不能占用
+        long reservedByOthers = reserved.get() - Math.max(0, tenant.min - usage);
+        return weightedSize.get() + weight <= capacity - reservedByOthers;
+    }
+
+    /**
+     * 按写入顺序从租户自己的元素中选择淘汰候选，凑够需要的空间后才真正淘汰；
+     * 候选比新元素更热时拒绝新元素并把候选移到队尾，这时不会淘汰任何元素
+     */
+    @SuppressWarnings("unchecked")
+    private boolean makeRoom(Tenant tenant, TenantKey<K> candidate, int weight) {
+        if (hasRoom(tenant, weight)) {
+            return true;
+        }
+        int candidateFrequency = sketch.frequency(candidate);
+        List<Node<K, V>> victims = new ArrayList<>();
+        long freed = 0;
+        Iterator<Node<?, ?>> iterator = tenant.queue.iterator();
+        for (int i = 0; i < MAX_VICTIM_SCAN && iterator.hasNext(); i++) {
+            Node<K, V> victim = (Node<K, V>) iterator.next();
+            if (victim.removed) {
+                iterator.remove();
+                tenant.queued.decrementAndGet();
+                continue;
+            }
+            if (victim.key.equals(candidate)) {
+                // 替换自己时不需要比较频率
+                continue;
+            }
+            // 频率相同时保留新元素，只有更热的旧元素才能挡住新元素
+            if (sketch.frequency(victim.key) > candidateFrequency) {
+                if (tenant.queue.remove(victim)) {
+                    tenant.queue.offer(victim);
+                }
+                return false;
+            }
+            victims.add(victim);
+            freed += victim.weight;
+            if (hasRoom(tenant, weight - freed)) {
+                for (Node<K, V> selected : victims) {
+                    evict(tenant, selected);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void evict(Tenant tenant, Node<K, V> victim) {
+        cache.asMap().computeIfPresent(victim.key, (k, node) -> {
+            if (node != victim) {
+                return node;
+            }
+            onRemoval(node);
+            tenant.evictions.increment();
+            return null;
+        });
+    }
+
+    // 以下方法都在该 key 的 compute 中执行
+
+    private void onInsert(Node<K, V> node) {
+        Tenant tenant = node.tenant;
+        addWeight(tenant, node.weight);
+        tenant.queue.offer(node);
+        int count = tenant.count.incrementAndGet();
+        if (tenant.queued.incrementAndGet() > 2 * count + 16) {
+            tenant.compact();
+        }
+    }
+
+    private void onRemoval(Node<K, V> node) {
+        if (node.isPending()) {
+            // 占位符不在队列中，也没有计入使用量
+            return;
+        }
+        node.removed = true;
+        node.tenant.count.decrementAndGet();
+        addWeight(node.tenant, -node.weight);
+    }
+
+    private void onEviction(TenantKey<K> key, Node<K, V> node, RemovalCause cause) {
+        if (node != null && !node.isPending()) {
+            onRemoval(node);
+            node.tenant.evictions.increment();
+        }
+    }
+
+    private void addWeight(Tenant tenant, long delta) {
+        weightedSize.addAndGet(delta);
+        // 与 deregister 互斥，租户被移除时已经一次性释放了它未用满的保底容量
+        synchronized (tenant) {
+            long old = tenant.weight.getAndAdd(delta);
+            if (tenant.retired) {
+                return;
+            }
+            long current = old + delta;
+            long reservedDelta = Math.max(0, tenant.min - current) - Math.max(0, tenant.min - old);
+            if (reservedDelta != 0) {
+                reserved.addAndGet(reservedDelta);
+            }
+        }
+    }
+
+    private Tenant tenant(String id) {
+        Tenant tenant = tenants.get(id);
+        return tenant != null ? tenant : register(id, defaultMin, defaultMax);
+    }
+
+    // 保底容量之和不能超过总容量，超出时新租户只能获得剩余的保底容量
+    private Tenant register(String id, long min, long max) {
+        return tenants.computeIfAbsent(id, key -> {
+            long granted = guaranteed.getAndUpdate(current -> Math.min(capacity, current + min));
+            long actualMin = Math.min(min, capacity - granted);
+            reserved.addAndGet(actualMin);
+            return new Tenant(id, actualMin, max);
+        });
+    }
+
+    public static final class Builder<K, V> {
+
+        private final long maximumWeight;
+
+        private final Map<String, long[]> quotas = new ConcurrentHashMap<>();
+
+        private Weigher<? super K, ? super V> weigher = (key, value) -> 1;
+
+        private long defaultMin;
+
+        private long defaultMax;
+
+        private long expectedEntries;
+
+        private Builder(long maximumWeight) {
+            if (maximumWeight <= 0) {
+                throw new IllegalArgumentException("maximumWeight: " + maximumWeight);
+            }
+            this.maximumWeight = maximumWeight;
+            this.defaultMax = maximumWeight;
+        }
+
+        public Builder<K, V> weigher(Weigher<? super K, ? super V> weigher) {
+            this.weigher = Objects.requireNonNull(weigher);
+            return this;
+        }
+
+        // 未单独配置的租户使用的配额
+        public Builder<K, V> defaultQuota(long min, long max) {
+            checkQuota(min, max);
+            this.defaultMin = min;
+            this.defaultMax = max;
+            return this;
+        }
+
+        public Builder<K, V> quota(String tenant, long min, long max) {
+            checkQuota(min, max);
+            quotas.put(Objects.requireNonNull(tenant), new long[]{min, max});
+            long total = quotas.values().stream().mapToLong(quota -> quota[0]).sum();
+            if (total > maximumWeight) {
+                throw new IllegalArgumentException("guaranteed weight " + total + " exceeds maximumWeight " + maximumWeight);
+            }
+            return this;
+        }
+
+        // 频率草图的大小，默认为 min(maximumWeight, 2^20)，按权重计算容量时应指定为预计的元素数量
+        public Builder<K, V> expectedEntries(long expectedEntries) {
+            this.expectedEntries = expectedEntries;
+            return this;
+        }
+
+        /**
+         * 使用指定的 Caffeine 配置创建缓存，可以在其中配置过期时间、executor 等，
+         * 不能再配置 maximumSize、maximumWeight、weigher 和 evictionListener
+         */
+        public MultiTenantCache<K, V> build(Caffeine<Object, Object> caffeine) {
+            return new MultiTenantCache<>(this, caffeine);
+        }
+
+        public MultiTenantCache<K, V> build() {
+            return build(Caffeine.newBuilder());
+        }
+
+        private void checkQuota(long min, long max) {
+            if (min < 0 || max < min || max > maximumWeight) {
+                throw new IllegalArgumentException("illegal quota: min=" + min + ", max=" + max);
+            }
+        }
+    }
+
+    public static final class Stats {
+
+        private final String tenant;
+
+        private final long hitCount;
+
+        private final long missCount;
+
+        private final long evictionCount;
+
+        private final long rejectionCount;
+
+        private final long weight;
+
+        private final long minimum;
+
+        private final long maximum;
+
+        private Stats(Tenant tenant) {
+            this.tenant = tenant.id;
+            this.hitCount = tenant.hits.sum();
+            this.missCount = tenant.misses.sum();
+            this.evictionCount = tenant.evictions.sum();
+            this.rejectionCount = tenant.rejections.sum();
+            this.weight = tenant.weight.get();
+            this.minimum = tenant.min;
+            this.maximum = tenant.max;
+        }
+
+        public long hitCount() {
+            return hitCount;
+        }
+
+        public long missCount() {
+            return missCount;
+        }
+
+        public double hitRate() {
+            long requestCount = hitCount + missCount;
+            return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+        }
+
+        // 被淘汰的元素数量，包括租户内淘汰、Caffeine 的容量驱逐和过期
+        public long evictionCount() {
+            return evictionCount;
+        }
+
+        // 没有通过准入的写入次数
+        public long rejectionCount() {
+            return rejectionCount;
+        }
+
+        public long weight() {
+            return weight;
+        }
+
+        public long minimum() {
+            return minimum;
+        }
+
+        public long maximum() {
+            return maximum;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s{weight=%d, min=%d, max=%d, hitRate=%.3f, evictions=%d, rejections=%d}",
+                    tenant, weight, minimum, maximum, hitRate(), evictionCount, rejectionCount);
+        }
+    }
+
+    private static final class Tenant {
+
+        final String id;
+
+        final long min;
+
+        final long max;
+
+        final AtomicLong weight = new AtomicLong();
+
+        final AtomicInteger count = new AtomicInteger();
+
+        // 按写入顺序排列的元素，被删除的元素延迟清理，queued 为队列的近似长度
+        final ConcurrentLinkedQueue<Node<?, ?>> queue = new ConcurrentLinkedQueue<>();
+
+        final AtomicInteger queued = new AtomicInteger();
+
+        final AtomicInteger compacting = new AtomicInteger();
+
+        // 已经被 deregister 移除，在 synchronized (tenant) 中读写
+        boolean retired;
+
+        final LongAdder hits = new LongAdder();
+
+        final LongAdder misses = new LongAdder();
+
+        final LongAdder evictions = new LongAdder();
+
+        final LongAdder rejections = new LongAdder();
+
+        Tenant(String id, long min, long max) {
+            this.id = id;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * 已删除的元素过多时清理队列，避免元素因过期或全局驱逐被删除后队列无限增长。
+         * 迭代器的 remove 不返回是否成功，与 makeRoom 同时删除同一个元素时 queued 会被多减一次，
+         * 所以这里用清理后的实际长度重置 queued，误差不会累积导致不再触发清理
+         */
+        void compact() {
+            if (!compacting.compareAndSet(0, 1)) {
+                return;
+            }
+            try {
+                int live = 0;
+                for (Iterator<Node<?, ?>> iterator = queue.iterator(); iterator.hasNext(); ) {
+                    if (iterator.next().removed) {
+                        iterator.remove();
+                    } else {
+                        live++;
+                    }
+                }
+                queued.set(live);
+            } finally {
+                compacting.set(0);
+            }
+        }
+    }
+
+    private static final class Node<K, V> {
+
+        final Tenant tenant;
+
+        final TenantKey<K> key;
+
+        final V value;
+
+        final int weight;
+
+        volatile boolean removed;
+
+        // value 为 null 的节点是 get 加载期间写入的占位符，对读取不可见
+        Node(Tenant tenant, TenantKey<K> key, V value, int weight) {
+            this.tenant = tenant;
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+
+        boolean isPending() {
+            return value == null;
+        }
+    }
+
+    private static final class TenantKey<K> {
+
+        final String tenant;
+
+        final K key;
+
+        TenantKey(String tenant, K key) {
+            this.tenant = Objects.requireNonNull(tenant);
+            this.key = Objects.requireNonNull(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TenantKey)) {
+                return false;
+            }
+            TenantKey<?> that = (TenantKey<?>) o;
+            return tenant.equals(that.tenant) && key.equals(that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * tenant.hashCode() + key.hashCode();
+        }
+    }
+}
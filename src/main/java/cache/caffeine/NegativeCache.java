@@ -0,0 +1,373 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Weigher;
+import org.checkerframework.checker.index.qual.NonNegative;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 支持缓存空结果的缓存，用于解决缓存穿透
+ * <p>
+ * Caffeine 中加载结果为 null 时不会被缓存，不存在的 key 每次查询都会访问数据源。这里把"不存在"保存为一个全局共享的哨兵对象，
+ * 与正常数据放在同一个 Caffeine 实例中，但是：
+ * <ul>
+ *     <li>过期时间：通过 Expiry 为哨兵单独指定较短的过期时间，读取不会延长</li>
+ *     <li>容量：哨兵的权重为 0，不占用正常数据的容量，也不会被基于容量的驱逐选中，所以不会挤掉正常数据；
+ *     哨兵的数量由 maximumNegative 单独限制，达到上限后新的空结果不再缓存</li>
+ *     <li>准入：可以要求 key 在 {@link FrequencySketch} 中的访问频率达到阈值后才缓存空结果，避免一次性的随机 ID 占满空结果的容量</li>
+ *     <li>统计：空结果命中与正常命中分开统计</li>
+ * </ul>
+ */
+public final class NegativeCache<K, V> {
+
+    // 所有空结果共享的哨兵对象
+    private static final Object ABSENT = new Object() {
+        @Override
+        public String toString() {
+            return "ABSENT";
+        }
+    };
+
+    private final Cache<K, Object> cache;
+
+    private final long maximumNegative;
+
+    private final int admissionFrequency;
+
+    private final FrequencySketch sketch;
+
+    private final AtomicLong negativeCount = new AtomicLong();
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder negativeHitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder negativeStoreCount = new LongAdder();
+
+    private final LongAdder negativeRejectionCount = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    private NegativeCache(Builder<K, V> builder, Caffeine<Object, Object> caffeine) {
+        this.maximumNegative = builder.maximumNegative;
+        this.admissionFrequency = builder.admissionFrequency;
+        this.sketch = admissionFrequency > 1 ? new FrequencySketch(maximumNegative) : null;
+
+        Weigher<? super K, ? super V> weigher = builder.weigher;
+        Expiry<K, V> expiry = builder.expiry;
+        long negativeTtl = builder.negativeTtl.toNanos();
+        this.cache = caffeine
+                .maximumWeight(builder.maximumWeight)
+                .weigher((K key, Object value) -> value == ABSENT ? 0 : weigher.weigh(key, (V) value))
+                .expireAfter(new Expiry<K, Object>() {
+                    @Override
+                    public long expireAfterCreate(K key, Object value, long currentTime) {
+                        return value == ABSENT ? negativeTtl : expiry.expireAfterCreate(key, (V) value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(K key, Object value, long currentTime, @NonNegative long currentDuration) {
+                        return value == ABSENT ? negativeTtl
+                                : expiry.expireAfterUpdate(key, (V) value, currentTime, currentDuration);
+                    }
+
+                    @Override
+                    public long expireAfterRead(K key, Object value, long currentTime, @NonNegative long currentDuration) {
+                        return value == ABSENT ? currentDuration
+                                : expiry.expireAfterRead(key, (V) value, currentTime, currentDuration);
+                    }
+                })
+                .evictionListener(this::onEviction)
+                .build();
+    }
+
+    public static <K, V> Builder<K, V> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 获取元素，不存在时加载。加载结果为 null 时缓存空结果，在空结果过期之前再次查询直接返回 null，不会调用 mappingFunction
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key, Function<? super K, ? extends V> mappingFunction) {
+        boolean[] loaded = {false};
+        Object value = cache.get(key, k -> {
+            loaded[0] = true;
+            V result = mappingFunction.apply(k);
+            if (result != null) {
+                return result;
+            }
+            return admitNegative(k) ? ABSENT : null;
+        });
+        if (loaded[0]) {
+            missCount.increment();
+        } else if (value == ABSENT) {
+            negativeHitCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return value == ABSENT ? null : (V) value;
+    }
+
+    // 不存在或已知不存在时都返回 null，区分两者使用 isNegative
+    @SuppressWarnings("unchecked")
+    public V getIfPresent(K key) {
+        Object value = cache.getIfPresent(key);
+        if (value == null) {
+            missCount.increment();
+            return null;
+        }
+        if (value == ABSENT) {
+            negativeHitCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        return (V) value;
+    }
+
+    // 是否缓存了该 key 不存在的结果
+    public boolean isNegative(K key) {
+        return cache.policy().getIfPresentQuietly(key) == ABSENT;
+    }
+
+    /**
+     * 写入元素。先删除空结果再写入，使元素按正常数据的策略重新计算过期时间，而不是沿用空结果剩余的过期时间
+     */
+    public void put(K key, V value) {
+        Objects.requireNonNull(value);
+        if (cache.asMap().remove(key, ABSENT)) {
+            negativeCount.decrementAndGet();
+        }
+        cache.asMap().compute(key, (k, old) -> {
+            if (old == ABSENT) {
+                negativeCount.decrementAndGet();
+            }
+            return value;
+        });
+    }
+
+    public void invalidate(K key) {
+        cache.asMap().computeIfPresent(key, (k, old) -> {
+            if (old == ABSENT) {
+                negativeCount.decrementAndGet();
+            }
+            return null;
+        });
+    }
+
+    public long negativeCount() {
+        return negativeCount.get();
+    }
+
+    public long estimatedSize() {
+        return cache.estimatedSize();
+    }
+
+    public void cleanUp() {
+        cache.cleanUp();
+    }
+
+    public Stats stats() {
+        return new Stats(this);
+    }
+
+    // 在加载该 key 的 computeIfAbsent 中执行
+    private boolean admitNegative(K key) {
+        if (sketch != null) {
+            sketch.increment(key);
+            if (sketch.frequency(key) < admissionFrequency) {
+                negativeRejectionCount.increment();
+                return false;
+            }
+        }
+        if (negativeCount.incrementAndGet() > maximumNegative) {
+            negativeCount.decrementAndGet();
+            negativeRejectionCount.increment();
+            return false;
+        }
+        negativeStoreCount.increment();
+        return true;
+    }
+
+    private void onEviction(K key, Object value, RemovalCause cause) {
+        if (value == ABSENT) {
+            negativeCount.decrementAndGet();
+        }
+    }
+
+    public static final class Builder<K, V> {
+
+        private long maximumWeight = Long.MAX_VALUE;
+
+        private Weigher<? super K, ? super V> weigher = (key, value) -> 1;
+
+        private Expiry<K, V> expiry = new Expiry<K, V>() {
+            @Override
+            public long expireAfterCreate(K key, V value, long currentTime) {
+                return Long.MAX_VALUE;
+            }
+
+            @Override
+            public long expireAfterUpdate(K key, V value, long currentTime, @NonNegative long currentDuration) {
+                return currentDuration;
+            }
+
+            @Override
+            public long expireAfterRead(K key, V value, long currentTime, @NonNegative long currentDuration) {
+                return currentDuration;
+            }
+        };
+
+        private Duration negativeTtl = Duration.ofSeconds(30);
+
+        private long maximumNegative = 10_000;
+
+        private int admissionFrequency = 1;
+
+        private Builder() {
+        }
+
+        // 正常数据的最大数量，空结果不计入
+        public Builder<K, V> maximumSize(long maximumSize) {
+            return maximumWeight(maximumSize, (key, value) -> 1);
+        }
+
+        // 正常数据的最大权重，空结果的权重为 0
+        public Builder<K, V> maximumWeight(long maximumWeight, Weigher<? super K, ? super V> weigher) {
+            if (maximumWeight < 0) {
+                throw new IllegalArgumentException("maximumWeight: " + maximumWeight);
+            }
+            this.maximumWeight = maximumWeight;
+            this.weigher = Objects.requireNonNull(weigher);
+            return this;
+        }
+
+        // 正常数据的写后过期时间
+        public Builder<K, V> expireAfterWrite(Duration duration) {
+            long nanos = duration.toNanos();
+            return expiry(new Expiry<K, V>() {
+                @Override
+                public long expireAfterCreate(K key, V value, long currentTime) {
+                    return nanos;
+                }
+
+                @Override
+                public long expireAfterUpdate(K key, V value, long currentTime, @NonNegative long currentDuration) {
+                    return nanos;
+                }
+
+                @Override
+                public long expireAfterRead(K key, V value, long currentTime, @NonNegative long currentDuration) {
+                    return currentDuration;
+                }
+            });
+        }
+
+        // 正常数据的过期策略
+        public Builder<K, V> expiry(Expiry<K, V> expiry) {
+            this.expiry = Objects.requireNonNull(expiry);
+            return this;
+        }
+
+        // 空结果的过期时间，从写入开始计算
+        public Builder<K, V> negativeTtl(Duration negativeTtl) {
+            if (negativeTtl.isNegative()) {
+                throw new IllegalArgumentException("negativeTtl: " + negativeTtl);
+            }
+            this.negativeTtl = negativeTtl;
+            return this;
+        }
+
+        // 空结果的最大数量
+        public Builder<K, V> maximumNegative(long maximumNegative) {
+            if (maximumNegative < 0) {
+                throw new IllegalArgumentException("maximumNegative: " + maximumNegative);
+            }
+            this.maximumNegative = maximumNegative;
+            return this;
+        }
+
+        // key 的未命中次数达到 frequency 后才缓存空结果，默认为 1，即第一次未命中就缓存
+        public Builder<K, V> negativeAdmission(int frequency) {
+            if (frequency < 1 || frequency > 15) {
+                throw new IllegalArgumentException("frequency: " + frequency);
+            }
+            this.admissionFrequency = frequency;
+            return this;
+        }
+
+        /**
+         * 使用指定的 Caffeine 配置创建缓存，可以在其中配置 ticker、executor、scheduler 等，
+         * 不能再配置 maximumSize、maximumWeight、weigher、过期策略和 evictionListener
+         */
+        public NegativeCache<K, V> build(Caffeine<Object, Object> caffeine) {
+            return new NegativeCache<>(this, caffeine);
+        }
+
+        public NegativeCache<K, V> build() {
+            return build(Caffeine.newBuilder());
+        }
+    }
+
+    public static final class Stats {
+
+        private final long hitCount;
+
+        private final long negativeHitCount;
+
+        private final long missCount;
+
+        private final long negativeStoreCount;
+
+        private final long negativeRejectionCount;
+
+        private Stats(NegativeCache<?, ?> cache) {
+            this.hitCount = cache.hitCount.sum();
+            this.negativeHitCount = cache.negativeHitCount.sum();
+            this.missCount = cache.missCount.sum();
+            this.negativeStoreCount = cache.negativeStoreCount.sum();
+            this.negativeRejectionCount = cache.negativeRejectionCount.sum();
+        }
+
+        public long hitCount() {
+            return hitCount;
+        }
+
+        // 命中空结果的次数，即被挡在数据源之外的查询次数
+        public long negativeHitCount() {
+            return negativeHitCount;
+        }
+
+        public long missCount() {
+            return missCount;
+        }
+
+        public long negativeStoreCount() {
+            return negativeStoreCount;
+        }
+
+        // 因为数量上限或准入频率没有缓存的空结果数量
+        public long negativeRejectionCount() {
+            return negativeRejectionCount;
+        }
+
+        public long requestCount() {
+            return hitCount + negativeHitCount + missCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Stats{hit=%d, negativeHit=%d, miss=%d, negativeStore=%d, negativeRejection=%d}",
+                    hitCount, negativeHitCount, missCount, negativeStoreCount, negativeRejectionCount);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package cache.caffeine;
+
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link CacheScanner#publisher} 的订阅实现，支持背压
+ * <p>
+ * 订阅者通过 request(n) 声明需求，只有需求大于 0 时才会推进 Spliterator 读取下一个元素，所以慢消费者不会导致数据堆积在内存中。
+ * 发送在 executor 中执行，wip 计数保证同一时刻只有一个线程在发送；每次最多发送 batchSize 个元素就重新提交任务，避免长时间占用线程。
+ * 重新提交时由 handoff 的 CAS 决定谁继续发送：execute 返回前任务就开始执行（同步 executor 如 Runnable::run、
+ * 线程池饱和时的 CallerRunsPolicy，或者很快被其他线程执行），任务直接返回，由提交方的发送循环继续下一批（trampoline），
+ * 不会每批递归一层导致栈溢出；否则提交方返回，由任务继续发送。两者只有一方 CAS 成功，所以 onNext 始终是串行的
+ */
+final class ScanSubscription<T> implements Flow.Subscription, Runnable, Consumer<T> {
+
+    private final Flow.Subscriber<? super T> subscriber;
+
+    private final Executor executor;
+
+    private final int batchSize;
+
+    private final Supplier<Spliterator<T>> source;
+
+    // 未满足的需求，累加到 Long.MAX_VALUE 后视为无界
+    private final AtomicLong demand = new AtomicLong();
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // 延迟到第一次发送时创建，保证有序扫描在驱逐锁中的复制发生在 executor 线程
+    private Spliterator<T> spliterator;
+
+    private volatile boolean done;
+
+    private volatile Throwable error;
+
+    // 发送线程重新提交任务期间为 true，任务和提交方谁先把它 CAS 为 false，谁就放弃发送
+    private final AtomicBoolean handoff = new AtomicBoolean();
+
+    ScanSubscription(Flow.Subscriber<? super T> subscriber, Executor executor, int batchSize,
+                     Supplier<Spliterator<T>> source) {
+        this.subscriber = subscriber;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.source = source;
+    }
+
+    void start() {
+        subscriber.onSubscribe(this);
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            // 规范 3.9：非正数的 request 需要以 onError 结束
+            error = new IllegalArgumentException("non-positive subscription request: " + n);
+        } else {
+            demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+        }
+        schedule();
+    }
+
+    @Override
+    public void cancel() {
+        done = true;
+    }
+
+    private void schedule() {
+        if (wip.getAndIncrement() == 0) {
+            executor.execute(this);
+        }
+    }
+
+    @Override
+    public void accept(T item) {
+        subscriber.onNext(item);
+    }
+
+    @Override
+    public void run() {
+        if (handoff.compareAndSet(true, false)) {
+            // execute 还没有返回，交给提交方的循环继续发送，不在这里递归
+            return;
+        }
+        drain();
+    }
+
+    private void drain() {
+        int missed = 1;
+        int emitted = 0;
+        while (true) {
+            if (done) {
+                return;
+            }
+            Throwable failure = error;
+            if (failure != null) {
+                done = true;
+                subscriber.onError(failure);
+                return;
+            }
+            try {
+                if (spliterator == null) {
+                    spliterator = source.get();
+                }
+                while (demand.get() > 0 && !done && error == null) {
+                    if (emitted == batchSize) {
+                        // 让出线程，剩余的工作交给新的任务，wip 保持不变所以不会有并发的发送
+                        handoff.set(true);
+                        executor.execute(this);
+                        if (handoff.compareAndSet(true, false)) {
+                            return;
+                        }
+                        // 任务在 execute 返回前已经放弃发送，在当前循环中继续下一批
+                        emitted = 0;
+                        continue;
+                    }
+                    if (!spliterator.tryAdvance(this)) {
+                        done = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                    emitted++;
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                }
+            } catch (Throwable t) {
+                done = true;
+                subscriber.onError(t);
+                return;
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+}
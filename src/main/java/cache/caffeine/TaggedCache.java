@@ -0,0 +1,248 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Weigher;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 支持按标签分组失效的缓存
+ * <p>
+ * 写入时为元素指定一个或多个标签（如商品 ID、租户 ID），通过 tag -> keys 的反向索引，invalidateByTag 只需要处理该分组内的元素，
+ * 不再需要遍历 asMap() 查找依赖的元素。标签保存在 value 的包装对象中，不额外维护 key -> tags 的正向索引
+ * <p>
+ * 索引的一致性依赖 ConcurrentHashMap 的桶锁：对同一个 key 的写入、删除都在 asMap().compute 中完成，
+ * 而 Caffeine 的 evictionListener 也是在驱逐该 key 的 computeIfPresent 中同步执行的，所以容量驱逐、过期驱逐时索引会被同步清理，不会泄漏。
+ * 同一个标签下 key 集合的增删在 tagIndex 的 compute 中完成，集合为空时会被移除
+ * <p>
+ * 注意：不支持 weakKeys、weakValues 和 softValues。tagIndex 强引用着 key，弱引用的 key 永远不会被回收；
+ * value 被包装后弱引用、软引用指向的是包装对象，被回收时 evictionListener 拿不到标签，索引无法清理
+ */
+public final class TaggedCache<K, V> {
+
+    private static final String[] NO_TAGS = {};
+
+    private final Cache<K, Tagged<V>> cache;
+
+    private final ConcurrentHashMap<String, Set<K>> tagIndex = new ConcurrentHashMap<>();
+
+    private TaggedCache(Caffeine<Object, Object> builder, Weigher<? super K, ? super V> weigher) {
+        // Caffeine 没有提供读取引用强度的方法，只能通过 toString 中的 keyStrength、valueStrength 判断
+        String config = builder.toString();
+        if (config.contains("keyStrength=") || config.contains("valueStrength=")) {
+            throw new IllegalArgumentException("TaggedCache does not support weakKeys, weakValues or softValues");
+        }
+        Caffeine<K, Tagged<V>> typed = builder.evictionListener(this::onEviction);
+        if (weigher != null) {
+            typed = typed.weigher((K key, Tagged<V> tagged) -> weigher.weigh(key, tagged.value));
+        }
+        this.cache = typed.build();
+    }
+
+    /**
+     * 使用指定的配置创建缓存，该方法会注册 evictionListener，所以 builder 中不能再配置 evictionListener
+     */
+    public static <K, V> TaggedCache<K, V> build(Caffeine<Object, Object> builder) {
+        return new TaggedCache<>(builder, null);
+    }
+
+    // 使用 maximumWeight 时需要指定权重计算方式，权重按原始的 value 计算
+    public static <K, V> TaggedCache<K, V> build(Caffeine<Object, Object> builder, Weigher<? super K, ? super V> weigher) {
+        return new TaggedCache<>(builder, Objects.requireNonNull(weigher));
+    }
+
+    public V getIfPresent(K key) {
+        Tagged<V> tagged = cache.getIfPresent(key);
+        return tagged == null ? null : tagged.value;
+    }
+
+    /**
+     * 获取元素，不存在时加载并为其指定标签，加载结果为 null 时不缓存。
+     * 元素已经存在时把 tags 中缺少的标签合并进去，之后按这些标签失效时也会包含它；
+     * 合并会替换包装对象，对 expireAfterWrite 来说相当于一次写入
+     */
+    public V get(K key, Function<? super K, ? extends V> mappingFunction, String... tags) {
+        String[] copy = copyOf(tags);
+        Tagged<V> tagged = cache.get(key, k -> {
+            V value = mappingFunction.apply(k);
+            if (value == null) {
+                return null;
+            }
+            index(k, copy);
+            return new Tagged<>(value, copy);
+        });
+        if (tagged != null && !containsAll(tagged.tags, copy)) {
+            tagged = merge(key, copy);
+        }
+        return tagged == null ? null : tagged.value;
+    }
+
+    // 在 key 的锁中合并标签，与 put、invalidate 的索引更新互斥
+    private Tagged<V> merge(K key, String[] tags) {
+        return cache.asMap().computeIfPresent(key, (k, old) -> {
+            Set<String> merged = new LinkedHashSet<>(Arrays.asList(old.tags));
+            Collections.addAll(merged, tags);
+            if (merged.size() == old.tags.length) {
+                return old;
+            }
+            String[] mergedTags = merged.toArray(NO_TAGS);
+            index(k, mergedTags);
+            return new Tagged<>(old.value, mergedTags);
+        });
+    }
+
+    // 写入元素，覆盖已有的值和标签
+    public void put(K key, V value, String... tags) {
+        Objects.requireNonNull(value);
+        String[] copy = copyOf(tags);
+        cache.asMap().compute(key, (k, old) -> {
+            if (old != null) {
+                unindex(k, old.tags);
+            }
+            index(k, copy);
+            return new Tagged<>(value, copy);
+        });
+    }
+
+    public Set<String> tags(K key) {
+        Tagged<V> tagged = cache.getIfPresent(key);
+        return tagged == null ? Collections.emptySet() : Set.of(tagged.tags);
+    }
+
+    public void invalidate(K key) {
+        cache.asMap().computeIfPresent(key, (k, old) -> {
+            unindex(k, old.tags);
+            return null;
+        });
+    }
+
+    /**
+     * 使带有指定标签的元素失效，返回失效的元素数量，耗时与分组大小成正比
+     * <p>
+     * 与 invalidateAll 一样是弱一致的：调用过程中新写入该标签的元素可能不会被失效
+     */
+    public int invalidateByTag(String tag) {
+        Set<K> keys = tagIndex.get(tag);
+        if (keys == null) {
+            return 0;
+        }
+        int[] invalidated = {0};
+        for (K key : keys) {
+            cache.asMap().compute(key, (k, old) -> {
+                if (old == null) {
+                    // 迭代期间已经被删除，索引可能还没有更新到这里，在 key 的锁中顺便清理
+                    unindex(k, new String[]{tag});
+                    return null;
+                }
+                if (!contains(old.tags, tag)) {
+                    // 迭代期间被重新写入并换了标签
+                    return old;
+                }
+                unindex(k, old.tags);
+                invalidated[0]++;
+                return null;
+            });
+        }
+        return invalidated[0];
+    }
+
+    public void invalidateAll() {
+        for (K key : cache.asMap().keySet()) {
+            invalidate(key);
+        }
+    }
+
+    // 标签下的 key 集合视图
+    public Set<K> keys(String tag) {
+        Set<K> keys = tagIndex.get(tag);
+        return keys == null ? Collections.emptySet() : Collections.unmodifiableSet(keys);
+    }
+
+    // 索引中的标签数量，用于检查索引是否被正确清理
+    public int tagCount() {
+        return tagIndex.size();
+    }
+
+    public long estimatedSize() {
+        return cache.estimatedSize();
+    }
+
+    public void cleanUp() {
+        cache.cleanUp();
+    }
+
+    private void onEviction(K key, Tagged<V> tagged, RemovalCause cause) {
+        // 在驱逐该 key 的 compute 中同步执行，不支持弱引用，所以 key 和 tagged 都不会为 null
+        unindex(key, tagged.tags);
+    }
+
+    private void index(K key, String[] tags) {
+        for (String tag : tags) {
+            tagIndex.compute(tag, (t, keys) -> {
+                if (keys == null) {
+                    keys = ConcurrentHashMap.newKeySet();
+                }
+                keys.add(key);
+                return keys;
+            });
+        }
+    }
+
+    private void unindex(K key, String[] tags) {
+        for (String tag : tags) {
+            tagIndex.computeIfPresent(tag, (t, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
+    private static String[] copyOf(String[] tags) {
+        if (tags.length == 0) {
+            return NO_TAGS;
+        }
+        String[] copy = tags.clone();
+        for (String tag : copy) {
+            Objects.requireNonNull(tag);
+        }
+        return copy;
+    }
+
+    private static boolean containsAll(String[] tags, String[] required) {
+        for (String tag : required) {
+            if (!contains(tags, tag)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(String[] tags, String tag) {
+        for (String t : tags) {
+            if (t.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Tagged<V> {
+
+        final V value;
+
+        final String[] tags;
+
+        Tagged(V value, String[] tags) {
+            this.value = value;
+            this.tags = tags;
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 写回（Write-Behind）模式的缓存
+ * <p>
+ * 写入立即更新缓存并把 key 标记为脏数据，由后台线程按批次刷写到 {@link CacheWriter}：
+ * <ul>
+ *     <li>合并：脏数据保存在 key -> 最新值的 Map 中，同一个 key 在一个刷写周期内的多次写入只会刷写一次</li>
+ *     <li>触发：每隔 flushInterval 刷写一次，脏数据达到 batchSize 时立即触发一次</li>
+ *     <li>有界：脏数据达到 maxPending 时由写入线程自己执行刷写（与 Caffeine 写缓冲区满时由调用方执行维护任务的做法相同），
+ *     刷写失败仍然无法腾出空间时拒绝写入</li>
+ *     <li>驱逐：脏数据在刷写成功之前一直保留在脏数据 Map 中，被驱逐的脏元素仍然可以读到，并会立即触发一次刷写</li>
+ *     <li>关闭：{@link #close(Duration)} 在超时时间内尽量刷写全部脏数据，返回未能刷写的数量</li>
+ *     <li>恢复：配置 journal 后每次写入都会追加到本地日志，刷写成功后追加已刷写标记，
+ *     进程崩溃后重新创建缓存时只重放日志中尚未刷写的脏数据</li>
+ * </ul>
+ * 同一个 key 的写入在 asMap().compute 中完成，脏数据与日志的顺序与写入顺序一致；刷写由 flushLock 串行执行，
+ * 同一批次刷写期间被再次写入的 key 会保留为脏数据，在下一批中刷写最新的值。
+ * 写入持有 closeLock 的读锁，close 获取写锁后才标记关闭，所以关闭之后不会再有写入追加日志；
+ * 日志在关闭时的刷写任务真正结束后才会关闭
+ */
+public final class WriteBehindCache<K, V> implements AutoCloseable {
+
+    private final Cache<K, V> cache;
+
+    private final ConcurrentHashMap<K, V> dirty = new ConcurrentHashMap<>();
+
+    private final CacheWriter<K, V> writer;
+
+    private final int batchSize;
+
+    private final int maxPending;
+
+    private final Duration shutdownTimeout;
+
+    private final WriteBehindJournal<K, V> journal;
+
+    private final ScheduledThreadPoolExecutor flusher;
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    // 在 flushLock 中读写，日志关闭后刷写不再追加已刷写标记
+    private boolean journalClosed;
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private volatile boolean closed;
+
+    private final LongAdder writeCount = new LongAdder();
+
+    private final LongAdder coalescedCount = new LongAdder();
+
+    private final LongAdder flushedCount = new LongAdder();
+
+    private final LongAdder batchCount = new LongAdder();
+
+    private final LongAdder failureCount = new LongAdder();
+
+    private WriteBehindCache(Builder<K, V> builder, Caffeine<Object, Object> caffeine) {
+        this.writer = builder.writer;
+        this.batchSize = builder.batchSize;
+        this.maxPending = builder.maxPending;
+        this.shutdownTimeout = builder.shutdownTimeout;
+        this.cache = caffeine.evictionListener(this::onEviction).build();
+        try {
+            this.journal = builder.journal == null ? null : new WriteBehindJournal<>(
+                    builder.journal, builder.keyCodec, builder.valueCodec, builder.compactThreshold);
+            if (journal != null) {
+                // 上次崩溃前未刷写的数据重新标记为脏数据
+                dirty.putAll(journal.recover());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        this.flusher = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "write-behind-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        long interval = builder.flushInterval.toNanos();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.NANOSECONDS);
+        if (!dirty.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+
+    public static <K, V> Builder<K, V> newBuilder(CacheWriter<K, V> writer) {
+        return new Builder<>(writer);
+    }
+
+    public V getIfPresent(K key) {
+        V value = cache.getIfPresent(key);
+        return value != null ? value : dirty.get(key);
+    }
+
+    // 缓存中不存在时优先读取尚未刷写的脏数据，避免从存储中读到旧值
+    public V get(K key, Function<? super K, ? extends V> mappingFunction) {
+        return cache.get(key, k -> {
+            V value = dirty.get(k);
+            return value != null ? value : mappingFunction.apply(k);
+        });
+    }
+
+    public void put(K key, V value) {
+        Objects.requireNonNull(value);
+        closeLock.readLock().lock();
+        try {
+            beforeWrite();
+            cache.asMap().compute(key, (k, old) -> {
+                markDirty(k, value);
+                return value;
+            });
+            afterWrite();
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 原子地更新元素，如计数器累加。remappingFunction 的参数为缓存或脏数据中的当前值，不存在时为 null（不会从存储中加载），
+     * 返回值不能为 null
+     */
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        V result;
+        closeLock.readLock().lock();
+        try {
+            beforeWrite();
+            result = cache.asMap().compute(key, (k, old) -> {
+                V current = old != null ? old : dirty.get(k);
+                V value = Objects.requireNonNull(remappingFunction.apply(k, current));
+                markDirty(k, value);
+                return value;
+            });
+            // 在读锁中触发刷写，close 在写锁中标记关闭之后才会关闭刷写线程池
+            afterWrite();
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * 使缓存中的元素失效，不会删除存储中的数据，尚未刷写的写入仍然会被刷写
+     */
+    public void invalidate(K key) {
+        cache.invalidate(key);
+    }
+
+    /**
+     * 在调用线程中刷写当前全部脏数据，返回刷写的数量，刷写失败时抛出 CompletionException，失败的批次保留为脏数据
+     */
+    public int flush() {
+        try {
+            return drain();
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    public int pendingCount() {
+        return dirty.size();
+    }
+
+    public long writeCount() {
+        return writeCount.sum();
+    }
+
+    // 被合并的写入次数，即写入时该 key 已经是脏数据的次数
+    public long coalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    public long flushedCount() {
+        return flushedCount.sum();
+    }
+
+    public long batchCount() {
+        return batchCount.sum();
+    }
+
+    public long failureCount() {
+        return failureCount.sum();
+    }
+
+    public void cleanUp() {
+        cache.cleanUp();
+    }
+
+    @Override
+    public void close() {
+        close(shutdownTimeout);
+    }
+
+    /**
+     * 停止接受写入，在超时时间内刷写剩余的脏数据，失败的批次会重试直到超时。
+     * 返回未能刷写的数量，配置了 journal 时这部分数据保留在日志中，下次启动时恢复
+     */
+    public int close(Duration timeout) {
+        // 等待进行中的写入完成，之后的写入都会失败
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return dirty.size();
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        AtomicBoolean started = new AtomicBoolean();
+        Future<?> future = flusher.submit(() -> {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                while (!dirty.isEmpty() && System.nanoTime() < deadline) {
+                    try {
+                        drain();
+                    } catch (Exception e) {
+                        try {
+                            Thread.sleep(Math.min(50, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+                        } catch (InterruptedException interrupted) {
+                            return;
+                        }
+                    }
+                }
+            } finally {
+                // 超时后刷写可能仍阻塞在 CacheWriter 中，由刷写任务在真正结束时关闭日志
+                closeJournal();
+            }
+        });
+        flusher.shutdown();
+        try {
+            future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // 存储不可用时不能无限期阻塞关闭，中断正在执行的刷写
+            future.cancel(true);
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+        if (started.compareAndSet(false, true)) {
+            // 刷写任务被取消时还没有开始执行，不会再执行了
+            closeJournal();
+        }
+        return dirty.size();
+    }
+
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            if (!journalClosed) {
+                journalClosed = true;
+                journal.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void beforeWrite() {
+        if (closed) {
+            throw new IllegalStateException("cache is closed");
+        }
+        if (dirty.size() >= maxPending) {
+            // 脏数据过多，写入线程自己刷写，形成背压
+            flushQuietly();
+            if (dirty.size() >= maxPending) {
+                throw new IllegalStateException("too many pending writes: " + dirty.size());
+            }
+        }
+    }
+
+    private void afterWrite() {
+        if (dirty.size() >= batchSize) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * 在该 key 的 compute 中执行，先更新脏数据再追加日志，与日志重写的顺序约定一致。
+     * 追加失败时写入会抛出异常，回滚脏数据，避免调用方收到失败的写入之后仍然被刷写
+     */
+    private void markDirty(K key, V value) {
+        V previous = dirty.put(key, value);
+        if (journal != null) {
+            try {
+                journal.append(key, value);
+            } catch (IOException | RuntimeException e) {
+                if (previous == null) {
+                    dirty.remove(key, value);
+                } else {
+                    dirty.replace(key, value, previous);
+                }
+                throw e instanceof IOException ? new UncheckedIOException((IOException) e) : (RuntimeException) e;
+            }
+        }
+        writeCount.increment();
+        if (previous != null) {
+            coalescedCount.increment();
+        }
+    }
+
+    private void onEviction(K key, V value, RemovalCause cause) {
+        // 脏数据仍在 dirty 中可以读到，尽快刷写使其在存储中可见
+        if (key != null && dirty.containsKey(key)) {
+            scheduleFlush();
+        }
+    }
+
+    // 驱逐回调不持有 closeLock，可能与 close 竞争，关闭后被拒绝的刷写由关闭时的刷写任务完成
+    private void scheduleFlush() {
+        if (!closed && flushScheduled.compareAndSet(false, true)) {
+            try {
+                flusher.execute(() -> {
+                    flushScheduled.set(false);
+                    flushQuietly();
+                });
+            } catch (RejectedExecutionException e) {
+                flushScheduled.set(false);
+                if (!closed) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            drain();
+        } catch (Exception e) {
+            // 已经记录在 failureCount 中，下个周期重试
+        }
+    }
+
+    /**
+     * 刷写开始时存在的脏数据，按 batchSize 分批。只刷写开始时的数量，避免持续写入同一个 key 时一直无法结束
+     */
+    private int drain() throws Exception {
+        flushLock.lock();
+        try {
+            int limit = dirty.size();
+            int flushed = 0;
+            Iterator<Map.Entry<K, V>> iterator = dirty.entrySet().iterator();
+            while (flushed < limit && iterator.hasNext()) {
+                Map<K, V> batch = new LinkedHashMap<>();
+                while (batch.size() < batchSize && iterator.hasNext()) {
+                    Map.Entry<K, V> entry = iterator.next();
+                    batch.put(entry.getKey(), entry.getValue());
+                }
+                try {
+                    writer.writeAll(Collections.unmodifiableMap(batch));
+                } catch (Exception e) {
+                    failureCount.increment();
+                    throw e;
+                }
+                batch.forEach(this::markFlushed);
+                batchCount.increment();
+                flushedCount.add(batch.size());
+                flushed += batch.size();
+            }
+            if (journal != null && !journalClosed) {
+                journal.sync();
+                journal.compactIfNeeded(dirty);
+            }
+            return flushed;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 在 flushLock 中执行。刷写期间被再次写入的 key 保留为脏数据；否则在 dirty 的 compute 中删除并追加已刷写标记，
+     * 写入方先更新 dirty 再追加日志，所以该 key 之后的写入一定追加在标记之后，恢复时不会被丢弃
+     */
+    private void markFlushed(K key, V value) {
+        dirty.computeIfPresent(key, (k, current) -> {
+            if (!current.equals(value)) {
+                return current;
+            }
+            if (journal != null && !journalClosed) {
+                try {
+                    journal.flushed(k);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 日志中 key 和 value 的序列化方式
+     */
+    public interface Codec<T> {
+
+        byte[] encode(T value);
+
+        T decode(byte[] bytes);
+
+        static Codec<String> utf8() {
+            return new Codec<String>() {
+                @Override
+                public byte[] encode(String value) {
+                    return value.getBytes(StandardCharsets.UTF_8);
+                }
+
+                @Override
+                public String decode(byte[] bytes) {
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+            };
+        }
+
+        static Codec<Long> int64() {
+            return new Codec<Long>() {
+                @Override
+                public byte[] encode(Long value) {
+                    return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+                }
+
+                @Override
+                public Long decode(byte[] bytes) {
+                    return ByteBuffer.wrap(bytes).getLong();
+                }
+            };
+        }
+    }
+
+    public static final class Builder<K, V> {
+
+        private final CacheWriter<K, V> writer;
+
+        private int batchSize = 500;
+
+        private int maxPending = 100_000;
+
+        private Duration flushInterval = Duration.ofSeconds(1);
+
+        private Duration shutdownTimeout = Duration.ofSeconds(30);
+
+        private Path journal;
+
+        private Codec<K> keyCodec;
+
+        private Codec<V> valueCodec;
+
+        private long compactThreshold = 16 << 20;
+
+        private Builder(CacheWriter<K, V> writer) {
+            this.writer = Objects.requireNonNull(writer);
+        }
+
+        public Builder<K, V> batchSize(int batchSize) {
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("batchSize: " + batchSize);
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        // 脏数据的上限，超过后写入线程需要自己执行刷写
+        public Builder<K, V> maxPending(int maxPending) {
+            if (maxPending <= 0) {
+                throw new IllegalArgumentException("maxPending: " + maxPending);
+            }
+            this.maxPending = maxPending;
+            return this;
+        }
+
+        public Builder<K, V> flushInterval(Duration flushInterval) {
+            if (flushInterval.isNegative() || flushInterval.isZero()) {
+                throw new IllegalArgumentException("flushInterval: " + flushInterval);
+            }
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        public Builder<K, V> shutdownTimeout(Duration shutdownTimeout) {
+            this.shutdownTimeout = Objects.requireNonNull(shutdownTimeout);
+            return this;
+        }
+
+        // 启用本地追加日志，日志超过 compactThreshold 字节后用当前的脏数据重写
+        public Builder<K, V> journal(Path path, Codec<K> keyCodec, Codec<V> valueCodec) {
+            this.journal = Objects.requireNonNull(path);
+            this.keyCodec = Objects.requireNonNull(keyCodec);
+            this.valueCodec = Objects.requireNonNull(valueCodec);
+            return this;
+        }
+
+        public Builder<K, V> compactThreshold(long compactThreshold) {
+            this.compactThreshold = compactThreshold;
+            return this;
+        }
+
+        /**
+         * 使用指定的 Caffeine 配置创建缓存，该方法会注册 evictionListener，所以 builder 中不能再配置 evictionListener
+         */
+        public WriteBehindCache<K, V> build(Caffeine<Object, Object> caffeine) {
+            return new WriteBehindCache<>(this, caffeine);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package cache.caffeine;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * {@link WriteBehindCache} 的本地追加日志，用于进程崩溃后恢复尚未刷写的脏数据
+ * <p>
+ * 记录格式为 [key 长度][value 长度][key][value][CRC32]，恢复时遇到不完整或校验失败的记录即停止，截断崩溃时写了一半的尾部。
+ * 每个 key 刷写成功后追加一条 value 长度为 -1 的已刷写标记，恢复时遇到标记就丢弃该 key 之前的记录，
+ * 不会重放已经刷写过的值、覆盖存储中更新的数据。
+ * 每次写入都直接写入文件，进程崩溃时数据仍在操作系统的页缓存中；{@link #sync} 在每次刷写时调用（组提交），
+ * 所以机器掉电最多丢失一个刷写周期的数据。日志超过阈值后用当前的脏数据重写，保证日志大小与脏数据量成正比。
+ * <p>
+ * 追加在写入线程中执行，这里使用 RandomAccessFile 而不是 FileChannel：FileChannel 是可中断的通道，
+ * 一个被中断的写入线程会让通道永久关闭，之后所有线程的写入都会失败
+ */
+final class WriteBehindJournal<K, V> implements AutoCloseable {
+
+    private static final int HEADER = 8;
+
+    private static final int TRAILER = 8;
+
+    // 已刷写标记的 value 长度
+    private static final int FLUSHED = -1;
+
+    private static final byte[] EMPTY = {};
+
+    private final Path path;
+
+    private final WriteBehindCache.Codec<K> keyCodec;
+
+    private final WriteBehindCache.Codec<V> valueCodec;
+
+    private final long compactThreshold;
+
+    private RandomAccessFile file;
+
+    private boolean closed;
+
+    WriteBehindJournal(Path path, WriteBehindCache.Codec<K> keyCodec, WriteBehindCache.Codec<V> valueCodec,
+                       long compactThreshold) throws IOException {
+        this.path = path;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.compactThreshold = compactThreshold;
+        this.file = open(path);
+    }
+
+    private static RandomAccessFile open(Path path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+        file.seek(file.length());
+        return file;
+    }
+
+    // 读取日志中尚未刷写的记录，同一个 key 保留最后一次写入的值，之后追加的记录紧接在最后一条完整的记录后面
+    synchronized Map<K, V> recover() throws IOException {
+        Map<K, V> entries = new LinkedHashMap<>();
+        if (!Files.exists(path)) {
+            return entries;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        int valid = 0;
+        while (buffer.remaining() >= HEADER) {
+            int keyLength = buffer.getInt();
+            int valueLength = buffer.getInt();
+            int length = valueLength == FLUSHED ? 0 : valueLength;
+            if (keyLength < 0 || length < 0 || buffer.remaining() < (long) keyLength + length + TRAILER) {
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            byte[] value = new byte[length];
+            buffer.get(key).get(value);
+            if (buffer.getLong() != checksum(key, value)) {
+                break;
+            }
+            if (valueLength == FLUSHED) {
+                entries.remove(keyCodec.decode(key));
+            } else {
+                entries.put(keyCodec.decode(key), valueCodec.decode(value));
+            }
+            valid = buffer.position();
+        }
+        if (valid < file.length()) {
+            file.setLength(valid);
+            file.seek(valid);
+        }
+        return entries;
+    }
+
+    synchronized void append(K key, V value) throws IOException {
+        write(keyCodec.encode(key), valueCodec.encode(value), false);
+    }
+
+    // 记录 key 之前写入的值已经刷写到存储中，调用方需要保证此后该 key 的写入都追加在标记之后
+    synchronized void flushed(K key) throws IOException {
+        write(keyCodec.encode(key), EMPTY, true);
+    }
+
+    private void write(byte[] keyBytes, byte[] valueBytes, boolean flushed) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + keyBytes.length + valueBytes.length + TRAILER);
+        buffer.putInt(keyBytes.length).putInt(flushed ? FLUSHED : valueBytes.length).put(keyBytes).put(valueBytes)
+                .putLong(checksum(keyBytes, valueBytes));
+        file.write(buffer.array());
+    }
+
+    synchronized void sync() throws IOException {
+        file.getFD().sync();
+    }
+
+    /**
+     * 日志超过阈值或脏数据已全部刷写时，用当前的脏数据重写日志。重写与 append 互斥，
+     * 写入方需要先更新脏数据再 append，这样重写时没有读到的写入一定会在重写之后追加到新日志中
+     */
+    synchronized void compactIfNeeded(Map<K, V> pending) throws IOException {
+        if (file.length() < compactThreshold && !(pending.isEmpty() && file.length() > 0)) {
+            return;
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        RandomAccessFile old = file;
+        file = new RandomAccessFile(temp.toFile(), "rw");
+        file.setLength(0);
+        for (Map.Entry<K, V> entry : pending.entrySet()) {
+            append(entry.getKey(), entry.getValue());
+        }
+        file.getFD().sync();
+        file.close();
+        old.close();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        file = open(path);
+    }
+
+    synchronized long size() throws IOException {
+        return file.length();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                file.getFD().sync();
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private static long checksum(byte[] key, byte[] value) {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(value);
+        return crc.getValue();
+    }
+}
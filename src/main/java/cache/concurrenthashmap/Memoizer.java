@@ -0,0 +1,201 @@
+package cache.concurrenthashmap;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * 不持有桶锁的记忆化加载器
+ * <p>
+ * ConcurrentHashMap#computeIfAbsent 会在持有桶锁（ReservationNode 或链表头节点）的情况下执行 mappingFunction，
+ * 加载缓慢时同一个桶中的其他 key 都会被阻塞，递归调用还可能抛出 "Recursive update" 或死锁。
+ * 这里的做法是先通过 putIfAbsent 发布一个占位的 {@link CompletableFuture}，再在锁外执行加载：
+ * 同一个 key 的调用方等待这个 future，其他 key 不受影响；加载失败、被取消或结果为 null 时会移除占位符。
+ * <p>
+ * 加载函数中可以获取其他 key。出现循环依赖时（同一线程中 A 加载 A，或者线程 1 加载 A 时等待 B、线程 2 加载 B 时等待 A），
+ * 沿着"加载线程正在等待的占位符"能回到当前线程，此时抛出 IllegalStateException 而不是永远等待。
+ * 异步加载的 executor 线程不足导致的等待不属于循环依赖，无法识别
+ */
+public class Memoizer<K, V> {
+
+    // 线程正在等待的占位符，用于识别循环等待，多个 Memoizer 之间的循环也能识别
+    private static final ConcurrentMap<Thread, CompletableFuture<?>> WAITING = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<K, CompletableFuture<V>> map = new ConcurrentHashMap<>();
+
+    private final Function<? super K, ? extends V> loader;
+
+    private final Executor executor;
+
+    public Memoizer(Function<? super K, ? extends V> loader) {
+        this(loader, ForkJoinPool.commonPool());
+    }
+
+    public Memoizer(Function<? super K, ? extends V> loader, Executor executor) {
+        this.loader = Objects.requireNonNull(loader);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    // 获取 key 对应的值，不存在时在当前线程加载，加载结果为 null 时不会被记录
+    public V get(K key) {
+        Objects.requireNonNull(key);
+        while (true) {
+            CompletableFuture<V> future = map.get(key);
+            if (future == null) {
+                Loading<V> loading = new Loading<>();
+                future = map.putIfAbsent(key, loading);
+                if (future == null) {
+                    // 占位成功，由当前线程在锁外完成加载
+                    load(key, loading);
+                    future = loading;
+                }
+            }
+            try {
+                return await(key, future);
+            } catch (CancellationException e) {
+                // 加载被 invalidate 取消，占位符已经被移除，重新尝试
+            }
+        }
+    }
+
+    /**
+     * 异步获取 key 对应的值，加载在 executor 中执行。
+     * 每个调用方拿到的是占位符的副本，取消副本不会影响其他调用方，取消加载使用 invalidate
+     */
+    public CompletableFuture<V> getAsync(K key) {
+        Objects.requireNonNull(key);
+        while (true) {
+            CompletableFuture<V> future = map.get(key);
+            if (future != null && !future.isCancelled()) {
+                return future.copy();
+            }
+            if (future != null) {
+                map.remove(key, future);
+                continue;
+            }
+            Loading<V> loading = new Loading<>();
+            if (map.putIfAbsent(key, loading) == null) {
+                try {
+                    executor.execute(() -> load(key, loading));
+                } catch (RuntimeException e) {
+                    map.remove(key, loading);
+                    loading.completeExceptionally(e);
+                }
+                return loading.copy();
+            }
+        }
+    }
+
+    // 只返回已经加载完成的值，不会触发加载，也不会等待进行中的加载
+    public V getIfPresent(K key) {
+        CompletableFuture<V> future = map.get(key);
+        if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+            return null;
+        }
+        return future.join();
+    }
+
+    public void invalidate(K key) {
+        CompletableFuture<V> future = map.remove(key);
+        if (future != null) {
+            // 唤醒正在等待的调用方，它们会重新发起加载
+            future.cancel(false);
+        }
+    }
+
+    public void invalidateAll() {
+        map.keySet().forEach(this::invalidate);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    private void load(K key, Loading<V> future) {
+        future.owner = Thread.currentThread();
+        V value;
+        try {
+            value = loader.apply(key);
+        } catch (Throwable t) {
+            // 失败的加载不应该被记住，移除占位符后续调用会重新加载
+            map.remove(key, future);
+            future.completeExceptionally(t);
+            return;
+        }
+        if (value == null) {
+            map.remove(key, future);
+        }
+        if (!future.complete(value)) {
+            // 加载期间被 invalidate 取消了，确保不会留下已取消的占位符
+            map.remove(key, future);
+        }
+    }
+
+    // 等待其他线程的加载前检查是否会形成循环等待，先登记再检查，两个线程同时等待对方时至少有一个能发现
+    private V await(K key, CompletableFuture<V> future) {
+        if (future.isDone() || !(future instanceof Loading)) {
+            return join(key, future);
+        }
+        Thread current = Thread.currentThread();
+        CompletableFuture<?> previous = WAITING.put(current, future);
+        try {
+            if (leadsTo((Loading<?>) future, current)) {
+                throw new IllegalStateException("Recursive load of key " + key);
+            }
+            return join(key, future);
+        } finally {
+            if (previous == null) {
+                WAITING.remove(current);
+            } else {
+                WAITING.put(current, previous);
+            }
+        }
+    }
+
+    // 从 future 的加载线程开始，沿着它正在等待的占位符查找，回到 current 说明存在循环
+    private static boolean leadsTo(Loading<?> future, Thread current) {
+        Loading<?> next = future;
+        for (int i = 0; i <= WAITING.size() && next != null && !next.isDone(); i++) {
+            Thread owner = next.owner;
+            if (owner == null) {
+                return false;
+            }
+            if (owner == current) {
+                return true;
+            }
+            CompletableFuture<?> waiting = WAITING.get(owner);
+            next = waiting instanceof Loading ? (Loading<?>) waiting : null;
+        }
+        return false;
+    }
+
+    private V join(K key, CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        } catch (CancellationException e) {
+            map.remove(key, future);
+            throw e;
+        }
+    }
+
+    // 占位符，记录执行加载的线程以识别循环等待
+    private static final class Loading<V> extends CompletableFuture<V> {
+
+        private volatile Thread owner;
+    }
+}
@@ -0,0 +1,609 @@
+package cache.concurrenthashmap;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁开放寻址哈希表，参考 Cliff Click 的 NonBlockingHashMap 实现
+ * <p>
+ * 与 ConcurrentHashMap 对桶加 synchronized 锁不同，所有写操作都只依赖对数组槽位的 CAS：
+ * key 槽位一旦被 CAS 占用便不再改变（删除只是把 value 标记为 TOMBSTONE），扩容时旧表中的
+ * value 会先被包装成 {@link Prime} "冻结"，再拷贝到新表，最后标记为 TOMBPRIME，
+ * 读写线程遇到 Prime 时会顺手帮忙拷贝该槽位，所以扩容期间读线程不会被阻塞
+ * <p>
+ * 与 ConcurrentHashMap 一致，key 和 value 均不允许为 null
+ */
+public class NonBlockingHashMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+    // 线性探测的最小重试次数，超过 REPROBE_LIMIT + len / 16 次仍未找到空位时触发扩容
+    static final int REPROBE_LIMIT = 10;
+
+    // 最小表容量，2 的 n 次幂
+    private static final int MIN_SIZE = 8;
+
+    // 每次领取的拷贝任务大小，多个线程以该粒度协作完成扩容
+    static final int MIN_COPY_WORK = 1024;
+
+    // 特殊标记：不关心旧值，无条件写入
+    static final Object NO_MATCH_OLD = new Object();
+    // 特殊标记：旧值必须存在（replace 语义）
+    static final Object MATCH_ANY = new Object();
+    // 特殊标记：已删除的 value，或在扩容时被"封死"的空 key 槽位
+    static final Object TOMBSTONE = new Object();
+    // 特殊标记：旧表中该槽位已拷贝到新表（或无需拷贝）
+    static final Prime TOMBPRIME = new Prime(TOMBSTONE);
+
+    private static final VarHandle TABLE;
+    static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    static {
+        try {
+            TABLE = MethodHandles.lookup().findVarHandle(NonBlockingHashMap.class, "table", Table.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile Table table;
+
+    // 最近一次扩容完成的时间，用于判断是否因删除过多导致频繁扩容
+    private volatile long lastResizeMillis;
+
+    public NonBlockingHashMap() {
+        this(MIN_SIZE);
+    }
+
+    public NonBlockingHashMap(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.table = new Table(tableSizeFor(initialCapacity), new LongAdder());
+        this.lastResizeMillis = System.currentTimeMillis();
+    }
+
+    static int tableSizeFor(int c) {
+        int n = Math.max(c, MIN_SIZE);
+        // 与 ConcurrentHashMap 相同，向上取整为 2 的 n 次幂
+        return n >= (1 << 30) ? 1 << 30 : (-1 >>> Integer.numberOfLeadingZeros(n - 1)) + 1;
+    }
+
+    static int reprobeLimit(int len) {
+        return REPROBE_LIMIT + (len >> 4);
+    }
+
+    // 扰动函数，将高位信息混入低位，避免开放寻址时大量聚集
+    static int hash(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h;
+    }
+
+    @Override
+    public int size() {
+        long sum = table.size.sum();
+        return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(sum, 0L);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        Object v = getImpl(table, key, hash(key));
+        @SuppressWarnings("unchecked") V result = (V) v;
+        return result;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return putIfMatch(key, value, NO_MATCH_OLD);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putIfMatch(key, value, TOMBSTONE);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return putIfMatch(key, TOMBSTONE, NO_MATCH_OLD);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (value == null) {
+            return false;
+        }
+        return value.equals(putIfMatch(key, TOMBSTONE, value));
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        return putIfMatch(key, value, MATCH_ANY);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (oldValue == null || newValue == null) {
+            throw new NullPointerException();
+        }
+        return oldValue.equals(putIfMatch(key, newValue, oldValue));
+    }
+
+    @Override
+    public void clear() {
+        Table fresh = new Table(MIN_SIZE, new LongAdder());
+        while (true) {
+            Table current = table;
+            if (TABLE.compareAndSet(this, current, fresh)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    // 统一的写入入口，返回旧值，TOMBSTONE 会被转换为 null
+    private V putIfMatch(Object key, Object newValue, Object expected) {
+        if (key == null || newValue == null || expected == null) {
+            throw new NullPointerException();
+        }
+        Object old = putIfMatch(table, key, newValue, expected);
+        @SuppressWarnings("unchecked") V result = old == TOMBSTONE ? null : (V) old;
+        return result;
+    }
+
+    private Object getImpl(Table t, Object key, int fullHash) {
+        int len = t.length();
+        int idx = fullHash & (len - 1);
+        int reprobes = 0;
+        while (true) {
+            Object k = t.key(idx);
+            Object v = t.value(idx);
+            if (k == null) {
+                return null;
+            }
+            // 必须在读取 value 之后读取 newTable，保证看到 Prime 时新表一定存在
+            Table newTable = t.newTable;
+            if (keyEquals(k, key, t.hashes, idx, fullHash)) {
+                if (!(v instanceof Prime)) {
+                    return v == TOMBSTONE ? null : v;
+                }
+                // 该槽位正在被拷贝，帮忙拷贝后到新表中查找
+                return getImpl(copySlotAndCheck(t, idx, key), key, fullHash);
+            }
+            if (++reprobes >= reprobeLimit(len) || k == TOMBSTONE) {
+                return newTable == null ? null : getImpl(helpCopy(newTable), key, fullHash);
+            }
+            idx = (idx + 1) & (len - 1);
+        }
+    }
+
+    /**
+     * 核心写入逻辑，expected 取值含义如下：
+     * NO_MATCH_OLD 无条件写入；TOMBSTONE 仅在不存在时写入；MATCH_ANY 仅在存在时写入；
+     * null 仅在扩容拷贝时使用，表示新表中必须还没有值；其他值表示旧值 equals 时写入
+     */
+    private Object putIfMatch(Table t, Object key, Object newValue, Object expected) {
+        final int fullHash = hash(key);
+        final int len = t.length();
+        int idx = fullHash & (len - 1);
+        int reprobes = 0;
+        Object k;
+        Object v;
+        Table newTable;
+        while (true) {
+            v = t.value(idx);
+            k = t.key(idx);
+            if (k == null) {
+                // 删除或替换一个不存在的 key，无需占用槽位
+                if (newValue == TOMBSTONE) {
+                    return TOMBSTONE;
+                }
+                if (expected == MATCH_ANY) {
+                    return TOMBSTONE;
+                }
+                if (t.casKey(idx, null, key)) {
+                    t.slots.increment();
+                    t.hashes[idx] = fullHash;
+                    break;
+                }
+                // CAS 失败说明其他线程占用了该槽位，重新读取后继续判断
+                k = t.key(idx);
+            }
+            newTable = t.newTable;
+            if (keyEquals(k, key, t.hashes, idx, fullHash)) {
+                break;
+            }
+            if (++reprobes >= reprobeLimit(len) || k == TOMBSTONE) {
+                // 探测次数过多或槽位已被扩容封死，转到新表中写入
+                Table resized = t.resize(this);
+                if (expected != null) {
+                    helpCopy(resized);
+                }
+                return putIfMatch(resized, key, newValue, expected);
+            }
+            idx = (idx + 1) & (len - 1);
+        }
+
+        if (newValue == v) {
+            return v;
+        }
+        newTable = t.newTable;
+        if (newTable == null && ((v == null && t.tableFull(reprobes, len)) || v instanceof Prime)) {
+            newTable = t.resize(this);
+        }
+        if (newTable != null) {
+            return putIfMatch(copySlotAndCheck(t, idx, expected), key, newValue, expected);
+        }
+
+        while (true) {
+            if (!matches(v, expected)) {
+                // 不满足写入条件，返回当前值
+                return v == null ? TOMBSTONE : v;
+            }
+            if (t.casValue(idx, v, newValue)) {
+                // 扩容拷贝不改变元素数量
+                if (expected != null) {
+                    boolean wasAbsent = v == null || v == TOMBSTONE;
+                    if (wasAbsent && newValue != TOMBSTONE) {
+                        t.size.increment();
+                    } else if (!wasAbsent && newValue == TOMBSTONE) {
+                        t.size.decrement();
+                    }
+                }
+                return v == null && expected != null ? TOMBSTONE : v;
+            }
+            v = t.value(idx);
+            if (v instanceof Prime) {
+                return putIfMatch(copySlotAndCheck(t, idx, expected), key, newValue, expected);
+            }
+        }
+    }
+
+    // 判断当前值 v 是否满足 expected 描述的写入条件
+    static boolean matches(Object v, Object expected) {
+        if (expected == NO_MATCH_OLD || v == expected) {
+            return true;
+        }
+        if (expected == MATCH_ANY) {
+            return v != null && v != TOMBSTONE;
+        }
+        if (expected == TOMBSTONE) {
+            return v == null;
+        }
+        return expected != null && expected.equals(v);
+    }
+
+    private static boolean keyEquals(Object k, Object key, int[] hashes, int idx, int fullHash) {
+        if (k == key) {
+            return true;
+        }
+        // hashes 在 key CAS 成功之后才写入，为 0 时无法据此快速判断，只能回退到 equals
+        int h = hashes[idx];
+        return (h == 0 || h == fullHash) && k != TOMBSTONE && key.equals(k);
+    }
+
+    // 拷贝旧表中的一个槽位，并在拷贝全部完成时将新表提升为当前表
+    private Table copySlotAndCheck(Table old, int idx, Object shouldHelp) {
+        Table newTable = old.newTable;
+        if (copySlot(old, idx, newTable)) {
+            copyCheckAndPromote(old, 1);
+        }
+        // 扩容拷贝自身（shouldHelp 为 null）不再递归地协助拷贝
+        return shouldHelp == null ? newTable : helpCopy(newTable);
+    }
+
+    // 若当前表正在扩容，领取一批拷贝任务协助完成
+    private Table helpCopy(Table helper) {
+        Table top = table;
+        if (top.newTable != null) {
+            helpCopyImpl(top, false);
+        }
+        return helper;
+    }
+
+    private void helpCopyImpl(Table old, boolean copyAll) {
+        Table newTable = old.newTable;
+        int oldLen = old.length();
+        int work = Math.min(oldLen, MIN_COPY_WORK);
+        boolean panic = false;
+        int copyIdx = 0;
+        while (old.copyDone.get() < oldLen) {
+            if (!panic) {
+                // 领取 [copyIdx, copyIdx + work) 区间，领取两轮仍未完成时进入 panic 模式，自己把剩余槽位拷贝完
+                copyIdx = old.copyIdx.getAndAdd(work);
+                if (copyIdx >= (oldLen << 1)) {
+                    panic = true;
+                }
+            }
+            int workDone = 0;
+            for (int i = 0; i < work; i++) {
+                if (copySlot(old, (copyIdx + i) & (oldLen - 1), newTable)) {
+                    workDone++;
+                }
+            }
+            if (workDone > 0) {
+                copyCheckAndPromote(old, workDone);
+            }
+            copyIdx += work;
+            if (!copyAll && !panic) {
+                return;
+            }
+        }
+        copyCheckAndPromote(old, 0);
+    }
+
+    private void copyCheckAndPromote(Table old, int workDone) {
+        int oldLen = old.length();
+        long copyDone = workDone > 0 ? old.copyDone.addAndGet(workDone) : old.copyDone.get();
+        if (copyDone == oldLen && table == old && TABLE.compareAndSet(this, old, old.newTable)) {
+            lastResizeMillis = System.currentTimeMillis();
+        }
+    }
+
+    // 拷贝单个槽位，返回 true 表示由当前线程完成了该槽位的拷贝
+    private boolean copySlot(Table old, int idx, Table newTable) {
+        Object key;
+        // 封死空 key 槽位，阻止新的写入落在旧表中
+        while ((key = old.key(idx)) == null) {
+            old.casKey(idx, null, TOMBSTONE);
+        }
+        Object oldValue = old.value(idx);
+        while (!(oldValue instanceof Prime)) {
+            Prime box = (oldValue == null || oldValue == TOMBSTONE) ? TOMBPRIME : new Prime(oldValue);
+            if (old.casValue(idx, oldValue, box)) {
+                // 已删除或从未写入的槽位无需拷贝
+                if (box == TOMBPRIME) {
+                    return true;
+                }
+                oldValue = box;
+                break;
+            }
+            oldValue = old.value(idx);
+        }
+        if (oldValue == TOMBPRIME) {
+            return false;
+        }
+        Object unboxed = ((Prime) oldValue).value;
+        boolean copied = putIfMatch(newTable, key, unboxed, null) == null;
+        while (oldValue != TOMBPRIME && !old.casValue(idx, oldValue, TOMBPRIME)) {
+            oldValue = old.value(idx);
+        }
+        return copied;
+    }
+
+    // 迭代前先完成所有进行中的扩容，得到一张稳定的表作为快照
+    private Table snapshotTable() {
+        while (true) {
+            Table top = table;
+            if (top.newTable == null) {
+                return top;
+            }
+            helpCopyImpl(top, true);
+        }
+    }
+
+    // 扩容期间被"冻结"的 value
+    static final class Prime {
+        final Object value;
+
+        Prime(Object value) {
+            this.value = value;
+        }
+    }
+
+    // 一张哈希表以及它的扩容状态，key 和 value 交替存放在 kvs 数组中
+    static final class Table {
+
+        final Object[] kvs;
+
+        // 缓存每个槽位 key 的哈希值，减少 equals 调用
+        final int[] hashes;
+
+        // 所有表共享同一个计数器
+        final LongAdder size;
+
+        // 已被占用的 key 槽位数量（包括已删除的）
+        final LongAdder slots = new LongAdder();
+
+        final AtomicInteger copyIdx = new AtomicInteger();
+
+        final AtomicLong copyDone = new AtomicLong();
+
+        volatile Table newTable;
+
+        Table(int len, LongAdder size) {
+            this.kvs = new Object[len << 1];
+            this.hashes = new int[len];
+            this.size = size;
+        }
+
+        int length() {
+            return hashes.length;
+        }
+
+        Object key(int idx) {
+            return SLOTS.getVolatile(kvs, idx << 1);
+        }
+
+        Object value(int idx) {
+            return SLOTS.getVolatile(kvs, (idx << 1) + 1);
+        }
+
+        boolean casKey(int idx, Object expected, Object key) {
+            return SLOTS.compareAndSet(kvs, idx << 1, expected, key);
+        }
+
+        boolean casValue(int idx, Object expected, Object value) {
+            return SLOTS.compareAndSet(kvs, (idx << 1) + 1, expected, value);
+        }
+
+        boolean tableFull(int reprobes, int len) {
+            return reprobes >= REPROBE_LIMIT && (reprobes >= reprobeLimit(len) || slots.sum() >= (len >> 1));
+        }
+
+        Table resize(NonBlockingHashMap<?, ?> map) {
+            Table next = newTable;
+            if (next != null) {
+                return next;
+            }
+            int oldLen = length();
+            long sz = size.sum();
+            long newSize = sz;
+            // 元素超过 1/4 时扩容两倍，超过 1/2 时扩容四倍
+            if (sz >= (oldLen >> 2)) {
+                newSize = (long) oldLen << 1;
+                if (sz >= (oldLen >> 1)) {
+                    newSize = (long) oldLen << 2;
+                }
+            }
+            // 大量删除导致槽位被占满，且刚刚才扩容过，说明表太小了，直接翻倍
+            if (newSize <= oldLen && System.currentTimeMillis() <= map.lastResizeMillis + 10_000
+                    && slots.sum() >= (sz << 1)) {
+                newSize = (long) oldLen << 1;
+            }
+            if (newSize < oldLen) {
+                newSize = oldLen;
+            }
+            int len = tableSizeFor((int) Math.min(newSize, 1 << 30));
+            next = newTable;
+            if (next != null) {
+                return next;
+            }
+            Table created = new Table(len, size);
+            if (NEW_TABLE.compareAndSet(this, null, created)) {
+                return created;
+            }
+            return newTable;
+        }
+    }
+
+    private static final VarHandle NEW_TABLE;
+
+    static {
+        try {
+            NEW_TABLE = MethodHandles.lookup().findVarHandle(Table.class, "newTable", Table.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return NonBlockingHashMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            NonBlockingHashMap.this.clear();
+        }
+    }
+
+    // 弱一致性迭代器，遍历快照表；若遍历过程中发生扩容，value 以 get 的结果为准
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+
+        private final Table snapshot = snapshotTable();
+
+        private int idx;
+
+        private Entry<K, V> next;
+
+        private Entry<K, V> last;
+
+        EntryIterator() {
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (idx < snapshot.length()) {
+                Object k = snapshot.key(idx);
+                Object v = snapshot.value(idx);
+                idx++;
+                if (k == null || k == TOMBSTONE) {
+                    continue;
+                }
+                if (v instanceof Prime) {
+                    v = get(k);
+                }
+                if (v == null || v == TOMBSTONE) {
+                    continue;
+                }
+                next = new MapEntry((K) k, (V) v);
+                return;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            advance();
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            NonBlockingHashMap.this.remove(last.getKey());
+            last = null;
+        }
+    }
+
+    private final class MapEntry extends SimpleEntry<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        MapEntry(K key, V value) {
+            super(key, value);
+        }
+
+        // 与 ConcurrentHashMap 一致，setValue 会写回 map
+        @Override
+        public V setValue(V value) {
+            super.setValue(value);
+            return put(getKey(), value);
+        }
+    }
+}
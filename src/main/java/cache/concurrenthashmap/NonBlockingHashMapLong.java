@@ -0,0 +1,606 @@
+package cache.concurrenthashmap;
+
+import cache.concurrenthashmap.NonBlockingHashMap.Prime;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static cache.concurrenthashmap.NonBlockingHashMap.MATCH_ANY;
+import static cache.concurrenthashmap.NonBlockingHashMap.MIN_COPY_WORK;
+import static cache.concurrenthashmap.NonBlockingHashMap.NO_MATCH_OLD;
+import static cache.concurrenthashmap.NonBlockingHashMap.SLOTS;
+import static cache.concurrenthashmap.NonBlockingHashMap.TOMBPRIME;
+import static cache.concurrenthashmap.NonBlockingHashMap.TOMBSTONE;
+import static cache.concurrenthashmap.NonBlockingHashMap.matches;
+import static cache.concurrenthashmap.NonBlockingHashMap.reprobeLimit;
+import static cache.concurrenthashmap.NonBlockingHashMap.tableSizeFor;
+
+/**
+ * {@link NonBlockingHashMap} 的 long 类型 key 版本，key 直接存放在 long[] 中，读写时不会发生装箱
+ * <p>
+ * 算法与 NonBlockingHashMap 相同，区别在于 long[] 无法存放 TOMBSTONE 标记：0 被用作空槽位，
+ * 扩容时不再"封死"空的 key 槽位，而是直接将其 value 置为 TOMBPRIME，读写线程据此转到新表；
+ * key 为 0 的元素单独存放在 zeroValue 字段中
+ */
+public class NonBlockingHashMapLong<V> extends AbstractMap<Long, V> implements ConcurrentMap<Long, V> {
+
+    private static final long NO_KEY = 0L;
+
+    private static final int MIN_SIZE = 8;
+
+    private static final VarHandle TABLE;
+    private static final VarHandle ZERO_VALUE;
+    private static final VarHandle NEW_TABLE;
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            TABLE = lookup.findVarHandle(NonBlockingHashMapLong.class, "table", Table.class);
+            ZERO_VALUE = lookup.findVarHandle(NonBlockingHashMapLong.class, "zeroValue", Object.class);
+            NEW_TABLE = lookup.findVarHandle(Table.class, "newTable", Table.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile Table table;
+
+    // key 为 0 的 value，TOMBSTONE 表示不存在
+    private volatile Object zeroValue = TOMBSTONE;
+
+    private volatile long lastResizeMillis;
+
+    public NonBlockingHashMapLong() {
+        this(MIN_SIZE);
+    }
+
+    public NonBlockingHashMapLong(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.table = new Table(tableSizeFor(initialCapacity), new LongAdder());
+        this.lastResizeMillis = System.currentTimeMillis();
+    }
+
+    static int hash(long key) {
+        int h = (int) (key ^ (key >>> 32));
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h;
+    }
+
+    @Override
+    public int size() {
+        long sum = table.size.sum() + (zeroValue != TOMBSTONE ? 1 : 0);
+        return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(sum, 0L);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Long && containsKey(((Long) key).longValue());
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == NO_KEY) {
+            Object v = zeroValue;
+            return v == TOMBSTONE ? null : (V) v;
+        }
+        return (V) getImpl(table, key, hash(key));
+    }
+
+    @Override
+    public V get(Object key) {
+        return key instanceof Long ? get(((Long) key).longValue()) : null;
+    }
+
+    public V put(long key, V value) {
+        return putIfMatch(key, value, NO_MATCH_OLD);
+    }
+
+    @Override
+    public V put(Long key, V value) {
+        return put(key.longValue(), value);
+    }
+
+    public V putIfAbsent(long key, V value) {
+        return putIfMatch(key, value, TOMBSTONE);
+    }
+
+    @Override
+    public V putIfAbsent(Long key, V value) {
+        return putIfAbsent(key.longValue(), value);
+    }
+
+    public V remove(long key) {
+        return putIfMatch(key, TOMBSTONE, NO_MATCH_OLD);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return key instanceof Long ? remove(((Long) key).longValue()) : null;
+    }
+
+    public boolean remove(long key, Object value) {
+        if (value == null) {
+            return false;
+        }
+        return value.equals(putIfMatch(key, TOMBSTONE, value));
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return key instanceof Long && remove(((Long) key).longValue(), value);
+    }
+
+    public V replace(long key, V value) {
+        return putIfMatch(key, value, MATCH_ANY);
+    }
+
+    @Override
+    public V replace(Long key, V value) {
+        return replace(key.longValue(), value);
+    }
+
+    public boolean replace(long key, V oldValue, V newValue) {
+        if (oldValue == null || newValue == null) {
+            throw new NullPointerException();
+        }
+        return oldValue.equals(putIfMatch(key, newValue, oldValue));
+    }
+
+    @Override
+    public boolean replace(Long key, V oldValue, V newValue) {
+        return replace(key.longValue(), oldValue, newValue);
+    }
+
+    @Override
+    public void clear() {
+        Table fresh = new Table(MIN_SIZE, new LongAdder());
+        while (true) {
+            Table current = table;
+            if (TABLE.compareAndSet(this, current, fresh)) {
+                break;
+            }
+        }
+        zeroValue = TOMBSTONE;
+    }
+
+    @Override
+    public Set<Entry<Long, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    // 不装箱地遍历所有 key
+    public PrimitiveIterator.OfLong keyIterator() {
+        return new KeyIterator();
+    }
+
+    private V putIfMatch(long key, Object newValue, Object expected) {
+        if (newValue == null || expected == null) {
+            throw new NullPointerException();
+        }
+        Object old = key == NO_KEY ? putIfMatchZero(newValue, expected) : putIfMatch(table, key, newValue, expected);
+        @SuppressWarnings("unchecked") V result = old == TOMBSTONE ? null : (V) old;
+        return result;
+    }
+
+    private Object putIfMatchZero(Object newValue, Object expected) {
+        while (true) {
+            Object v = zeroValue;
+            if (!matches(v, expected)) {
+                return v;
+            }
+            if (ZERO_VALUE.compareAndSet(this, v, newValue)) {
+                return v;
+            }
+        }
+    }
+
+    private Object getImpl(Table t, long key, int fullHash) {
+        int len = t.length();
+        int idx = fullHash & (len - 1);
+        int reprobes = 0;
+        while (true) {
+            long k = t.key(idx);
+            Object v = t.value(idx);
+            Table newTable = t.newTable;
+            if (k == NO_KEY) {
+                // 空槽位被扩容封死时 key 仍为 0，只能通过 value 判断是否需要转到新表
+                return v instanceof Prime ? getImpl(helpCopy(newTable), key, fullHash) : null;
+            }
+            if (k == key) {
+                if (!(v instanceof Prime)) {
+                    return v == TOMBSTONE ? null : v;
+                }
+                return getImpl(copySlotAndCheck(t, idx, key), key, fullHash);
+            }
+            if (++reprobes >= reprobeLimit(len)) {
+                return newTable == null ? null : getImpl(helpCopy(newTable), key, fullHash);
+            }
+            idx = (idx + 1) & (len - 1);
+        }
+    }
+
+    // 与 NonBlockingHashMap#putIfMatch 逻辑一致，expected 为 null 表示扩容拷贝
+    private Object putIfMatch(Table t, long key, Object newValue, Object expected) {
+        final int fullHash = hash(key);
+        final int len = t.length();
+        int idx = fullHash & (len - 1);
+        int reprobes = 0;
+        long k;
+        Object v;
+        while (true) {
+            v = t.value(idx);
+            k = t.key(idx);
+            if (k == NO_KEY) {
+                if (newValue == TOMBSTONE || expected == MATCH_ANY) {
+                    // 槽位可能已被封死，此时该 key 可能存在于新表中
+                    if (v instanceof Prime) {
+                        return putIfMatch(t.resize(this), key, newValue, expected);
+                    }
+                    return TOMBSTONE;
+                }
+                if (t.casKey(idx, NO_KEY, key)) {
+                    t.slots.increment();
+                    break;
+                }
+                k = t.key(idx);
+            }
+            if (k == key) {
+                break;
+            }
+            if (++reprobes >= reprobeLimit(len)) {
+                Table resized = t.resize(this);
+                if (expected != null) {
+                    helpCopy(resized);
+                }
+                return putIfMatch(resized, key, newValue, expected);
+            }
+            idx = (idx + 1) & (len - 1);
+        }
+
+        if (newValue == v) {
+            return v;
+        }
+        Table newTable = t.newTable;
+        if (newTable == null && ((v == null && t.tableFull(reprobes, len)) || v instanceof Prime)) {
+            newTable = t.resize(this);
+        }
+        if (newTable != null) {
+            return putIfMatch(copySlotAndCheck(t, idx, expected), key, newValue, expected);
+        }
+
+        while (true) {
+            if (!matches(v, expected)) {
+                return v == null ? TOMBSTONE : v;
+            }
+            if (t.casValue(idx, v, newValue)) {
+                if (expected != null) {
+                    boolean wasAbsent = v == null || v == TOMBSTONE;
+                    if (wasAbsent && newValue != TOMBSTONE) {
+                        t.size.increment();
+                    } else if (!wasAbsent && newValue == TOMBSTONE) {
+                        t.size.decrement();
+                    }
+                }
+                return v == null && expected != null ? TOMBSTONE : v;
+            }
+            v = t.value(idx);
+            if (v instanceof Prime) {
+                return putIfMatch(copySlotAndCheck(t, idx, expected), key, newValue, expected);
+            }
+        }
+    }
+
+    private Table copySlotAndCheck(Table old, int idx, Object shouldHelp) {
+        Table newTable = old.newTable;
+        if (copySlot(old, idx, newTable)) {
+            copyCheckAndPromote(old, 1);
+        }
+        return shouldHelp == null ? newTable : helpCopy(newTable);
+    }
+
+    private Table helpCopy(Table helper) {
+        Table top = table;
+        if (top.newTable != null) {
+            helpCopyImpl(top, false);
+        }
+        return helper;
+    }
+
+    private void helpCopyImpl(Table old, boolean copyAll) {
+        Table newTable = old.newTable;
+        int oldLen = old.length();
+        int work = Math.min(oldLen, MIN_COPY_WORK);
+        boolean panic = false;
+        int copyIdx = 0;
+        while (old.copyDone.get() < oldLen) {
+            if (!panic) {
+                copyIdx = old.copyIdx.getAndAdd(work);
+                if (copyIdx >= (oldLen << 1)) {
+                    panic = true;
+                }
+            }
+            int workDone = 0;
+            for (int i = 0; i < work; i++) {
+                if (copySlot(old, (copyIdx + i) & (oldLen - 1), newTable)) {
+                    workDone++;
+                }
+            }
+            if (workDone > 0) {
+                copyCheckAndPromote(old, workDone);
+            }
+            copyIdx += work;
+            if (!copyAll && !panic) {
+                return;
+            }
+        }
+        copyCheckAndPromote(old, 0);
+    }
+
+    private void copyCheckAndPromote(Table old, int workDone) {
+        long copyDone = workDone > 0 ? old.copyDone.addAndGet(workDone) : old.copyDone.get();
+        if (copyDone == old.length() && table == old && TABLE.compareAndSet(this, old, old.newTable)) {
+            lastResizeMillis = System.currentTimeMillis();
+        }
+    }
+
+    private boolean copySlot(Table old, int idx, Table newTable) {
+        Object oldValue = old.value(idx);
+        while (!(oldValue instanceof Prime)) {
+            Prime box = (oldValue == null || oldValue == TOMBSTONE) ? TOMBPRIME : new Prime(oldValue);
+            if (old.casValue(idx, oldValue, box)) {
+                if (box == TOMBPRIME) {
+                    return true;
+                }
+                oldValue = box;
+                break;
+            }
+            oldValue = old.value(idx);
+        }
+        if (oldValue == TOMBPRIME) {
+            return false;
+        }
+        // value 不为 null 时 key 一定已经写入
+        long key = old.key(idx);
+        Object unboxed = ((Prime) oldValue).value;
+        boolean copied = putIfMatch(newTable, key, unboxed, null) == null;
+        while (oldValue != TOMBPRIME && !old.casValue(idx, oldValue, TOMBPRIME)) {
+            oldValue = old.value(idx);
+        }
+        return copied;
+    }
+
+    private Table snapshotTable() {
+        while (true) {
+            Table top = table;
+            if (top.newTable == null) {
+                return top;
+            }
+            helpCopyImpl(top, true);
+        }
+    }
+
+    static final class Table {
+
+        final long[] keys;
+
+        final Object[] values;
+
+        final LongAdder size;
+
+        final LongAdder slots = new LongAdder();
+
+        final AtomicInteger copyIdx = new AtomicInteger();
+
+        final AtomicLong copyDone = new AtomicLong();
+
+        volatile Table newTable;
+
+        Table(int len, LongAdder size) {
+            this.keys = new long[len];
+            this.values = new Object[len];
+            this.size = size;
+        }
+
+        int length() {
+            return keys.length;
+        }
+
+        long key(int idx) {
+            return (long) KEYS.getVolatile(keys, idx);
+        }
+
+        Object value(int idx) {
+            return SLOTS.getVolatile(values, idx);
+        }
+
+        boolean casKey(int idx, long expected, long key) {
+            return KEYS.compareAndSet(keys, idx, expected, key);
+        }
+
+        boolean casValue(int idx, Object expected, Object value) {
+            return SLOTS.compareAndSet(values, idx, expected, value);
+        }
+
+        boolean tableFull(int reprobes, int len) {
+            return reprobes >= NonBlockingHashMap.REPROBE_LIMIT
+                    && (reprobes >= reprobeLimit(len) || slots.sum() >= (len >> 1));
+        }
+
+        Table resize(NonBlockingHashMapLong<?> map) {
+            Table next = newTable;
+            if (next != null) {
+                return next;
+            }
+            int oldLen = length();
+            long sz = size.sum();
+            long newSize = sz;
+            if (sz >= (oldLen >> 2)) {
+                newSize = (long) oldLen << 1;
+                if (sz >= (oldLen >> 1)) {
+                    newSize = (long) oldLen << 2;
+                }
+            }
+            if (newSize <= oldLen && System.currentTimeMillis() <= map.lastResizeMillis + 10_000
+                    && slots.sum() >= (sz << 1)) {
+                newSize = (long) oldLen << 1;
+            }
+            if (newSize < oldLen) {
+                newSize = oldLen;
+            }
+            Table created = new Table(tableSizeFor((int) Math.min(newSize, 1 << 30)), size);
+            if (NEW_TABLE.compareAndSet(this, null, created)) {
+                return created;
+            }
+            return newTable;
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<Long, V>> {
+
+        @Override
+        public Iterator<Entry<Long, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return NonBlockingHashMapLong.this.size();
+        }
+
+        @Override
+        public void clear() {
+            NonBlockingHashMapLong.this.clear();
+        }
+    }
+
+    // 弱一致性的 key 迭代器，先返回 key 0，再遍历快照表
+    private class KeyIterator implements PrimitiveIterator.OfLong {
+
+        private final Table snapshot = snapshotTable();
+
+        private int idx = -1;
+
+        private boolean hasNext;
+
+        private long nextKey;
+
+        Object nextValue;
+
+        private long lastKey;
+
+        private boolean canRemove;
+
+        KeyIterator() {
+            advance();
+        }
+
+        private void advance() {
+            hasNext = false;
+            if (idx == -1) {
+                idx++;
+                Object v = zeroValue;
+                if (v != TOMBSTONE) {
+                    hasNext = true;
+                    nextKey = NO_KEY;
+                    nextValue = v;
+                    return;
+                }
+            }
+            while (idx < snapshot.length()) {
+                long k = snapshot.key(idx);
+                Object v = snapshot.value(idx);
+                idx++;
+                if (k == NO_KEY) {
+                    continue;
+                }
+                if (v instanceof Prime) {
+                    v = get(k);
+                }
+                if (v == null || v == TOMBSTONE) {
+                    continue;
+                }
+                hasNext = true;
+                nextKey = k;
+                nextValue = v;
+                return;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        public long nextLong() {
+            if (!hasNext) {
+                throw new NoSuchElementException();
+            }
+            lastKey = nextKey;
+            canRemove = true;
+            advance();
+            return lastKey;
+        }
+
+        @Override
+        public void remove() {
+            if (!canRemove) {
+                throw new IllegalStateException();
+            }
+            NonBlockingHashMapLong.this.remove(lastKey);
+            canRemove = false;
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Entry<Long, V>> {
+
+        private final KeyIterator keys = new KeyIterator();
+
+        @Override
+        public boolean hasNext() {
+            return keys.hasNext();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<Long, V> next() {
+            V value = (V) keys.nextValue;
+            long key = keys.nextLong();
+            return new SimpleEntry<Long, V>(key, value) {
+                @Override
+                public V setValue(V v) {
+                    super.setValue(v);
+                    return put(getKey(), v);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            keys.remove();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package cache.footprint;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.google.common.cache.CacheBuilder;
+import org.checkerframework.checker.index.qual.NonNegative;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// 测试用例中使用到的缓存配置，key 和 value 为同一个 Integer 对象
+public enum CacheConfiguration {
+
+    // TestPerformance
+    CONCURRENT_HASH_MAP {
+        @Override
+        public Object build(Integer[] data) {
+            Map<Integer, Integer> map = new ConcurrentHashMap<>();
+            for (Integer key : data) {
+                map.put(key, key);
+            }
+            return map;
+        }
+    },
+
+    // TestUnboundedLocalCache
+    CAFFEINE_UNBOUNDED_STATS {
+        @Override
+        public Object build(Integer[] data) {
+            return fill(Caffeine.newBuilder().recordStats().build(), data);
+        }
+    },
+
+    // TestEviction.size
+    CAFFEINE_MAXIMUM_SIZE {
+        @Override
+        public Object build(Integer[] data) {
+            return fill(Caffeine.newBuilder().maximumSize(data.length).build(), data);
+        }
+    },
+
+    // TestEviction.weight
+    CAFFEINE_MAXIMUM_WEIGHT {
+        @Override
+        public Object build(Integer[] data) {
+            return fill(Caffeine.newBuilder()
+                    .maximumWeight(data.length)
+                    .weigher((Integer key, Integer value) -> 1)
+                    .build(), data);
+        }
+    },
+
+    // TestEviction.tickerTime
+    CAFFEINE_EXPIRE_AFTER_ACCESS {
+        @Override
+        public Object build(Integer[] data) {
+            return fill(Caffeine.newBuilder().expireAfterAccess(5, TimeUnit.MINUTES).build(), data);
+        }
+    },
+
+    // TestEviction.time、TestReadSourceCode.doReadTimeWheel
+    CAFFEINE_EXPIRE_AFTER {
+        @Override
+        public Object build(Integer[] data) {
+            return fill(Caffeine.newBuilder().expireAfter(new FixedExpiry()).build(), data);
+        }
+    },
+
+    // TestEviction.reference
+    CAFFEINE_WEAK_KEYS_WEAK_VALUES {
+        @Override
+        public Object build(Integer[] data) {
+            return fill(Caffeine.newBuilder().weakKeys().weakValues().build(), data);
+        }
+    },
+
+    // TestPolicy、TestPopulation.manual
+    CAFFEINE_MAXIMUM_SIZE_EXPIRE_AFTER_WRITE {
+        @Override
+        public Object build(Integer[] data) {
+            return fill(Caffeine.newBuilder()
+                    .maximumSize(data.length)
+                    .expireAfterWrite(5, TimeUnit.MINUTES)
+                    .build(), data);
+        }
+    },
+
+    // TestStatistics
+    CAFFEINE_MAXIMUM_SIZE_RECORD_STATS {
+        @Override
+        public Object build(Integer[] data) {
+            return fill(Caffeine.newBuilder().maximumSize(data.length).recordStats().build(), data);
+        }
+    },
+
+    // TestRefresh
+    CAFFEINE_REFRESH_AFTER_WRITE {
+        @Override
+        public Object build(Integer[] data) {
+            return fill(Caffeine.newBuilder()
+                    .maximumSize(data.length)
+                    .expireAfterWrite(Duration.ofMinutes(3))
+                    .refreshAfterWrite(Duration.ofMinutes(1))
+                    .build((Integer key) -> key), data);
+        }
+    },
+
+    // TestGuavaCache
+    GUAVA_MAXIMUM_SIZE_EXPIRE_AFTER_WRITE {
+        @Override
+        public Object build(Integer[] data) {
+            com.google.common.cache.Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+                    .maximumSize(data.length)
+                    .expireAfterWrite(10, TimeUnit.SECONDS)
+                    .build();
+            for (Integer key : data) {
+                cache.put(key, key);
+            }
+            cache.cleanUp();
+            return cache;
+        }
+    };
+
+    // 创建缓存并写入 data 中的元素，返回需要统计的根对象
+    // data 由调用方持有强引用，保证弱引用配置中的元素在统计期间不会被回收
+    public abstract Object build(Integer[] data);
+
+    private static Object fill(Cache<Integer, Integer> cache, Integer[] data) {
+        for (Integer key : data) {
+            cache.put(key, key);
+        }
+        // 清空读写缓冲区，执行完驱逐等维护任务后再统计
+        cache.cleanUp();
+        return cache;
+    }
+
+    private static final class FixedExpiry implements Expiry<Integer, Integer> {
+
+        @Override
+        public long expireAfterCreate(Integer key, Integer value, long currentTime) {
+            return TimeUnit.MINUTES.toNanos(5);
+        }
+
+        @Override
+        public long expireAfterUpdate(Integer key, Integer value, long currentTime, @NonNegative long currentDuration) {
+            return currentDuration;
+        }
+
+        @Override
+        public long expireAfterRead(Integer key, Integer value, long currentTime, @NonNegative long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
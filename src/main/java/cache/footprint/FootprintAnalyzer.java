@@ -0,0 +1,172 @@
+package cache.footprint;
+
+import cache.footprint.ObjectGraphWalker.Category;
+import cache.footprint.ObjectGraphWalker.Footprint;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 缓存单条目内存占用分析
+ * <p>
+ * Caffeine 会根据 weakKeys、expireAfter、maximumWeight 等配置生成不同的节点类（如 PSMS、SSLMW），
+ * 节点中的字段数量不同，每个条目的内存占用也不同。这里为每种配置写入指定数量的元素，遍历对象图统计保留堆大小，
+ * 并把节点、哈希表、缓冲区和频率草图的开销分开计算，用于堆内缓存的容量规划
+ * <p>
+ * 运行 main 方法可以输出 1K 到 10M 个元素时的报告，10M 需要较大的堆，如 -Xmx16g
+ */
+public class FootprintAnalyzer {
+
+    public static final int[] DEFAULT_ENTRIES = {1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+
+    private static final Class<?> CAFFEINE_NODE = load("com.github.benmanes.caffeine.cache.Node");
+    private static final Class<?> CAFFEINE_BUFFER = load("com.github.benmanes.caffeine.cache.Buffer");
+    private static final Class<?> CAFFEINE_WRITE_BUFFER = load("com.github.benmanes.caffeine.cache.MpscGrowableArrayQueue");
+    private static final Class<?> CAFFEINE_SKETCH = load("com.github.benmanes.caffeine.cache.FrequencySketch");
+    private static final Class<?> GUAVA_ENTRY = load("com.google.common.cache.ReferenceEntry");
+    private static final Class<?> GUAVA_VALUE_REFERENCE = load("com.google.common.cache.LocalCache$ValueReference");
+
+    private final ObjectGraphWalker walker = new ObjectGraphWalker(FootprintAnalyzer::classify, Integer.class::isInstance);
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Category classify(Object obj) {
+        Class<?> clazz = obj.getClass();
+        if (CAFFEINE_SKETCH.isInstance(obj)) {
+            return Category.SKETCH;
+        }
+        if (CAFFEINE_BUFFER.isInstance(obj) || CAFFEINE_WRITE_BUFFER.isInstance(obj)
+                || obj instanceof ConcurrentLinkedQueue) {
+            // Guava 使用 ConcurrentLinkedQueue 作为 recencyQueue 记录读操作
+            return Category.BUFFER;
+        }
+        if (obj instanceof AtomicReferenceArray) {
+            // Guava Segment 的哈希表
+            return Category.TABLE;
+        }
+        if (clazz.isArray()) {
+            Class<?> component = clazz.getComponentType();
+            if (Map.Entry.class.isAssignableFrom(component) || GUAVA_ENTRY.isAssignableFrom(component)) {
+                return Category.TABLE;
+            }
+            return null;
+        }
+        if (CAFFEINE_NODE.isInstance(obj) || GUAVA_ENTRY.isInstance(obj) || GUAVA_VALUE_REFERENCE.isInstance(obj)
+                || obj instanceof Map.Entry || obj instanceof Reference) {
+            // 弱引用、软引用 key 和 value 的引用对象也是每个条目都要付出的开销
+            return Category.NODE;
+        }
+        return null;
+    }
+
+    public Report analyze(CacheConfiguration configuration, int entries) {
+        Integer[] data = new Integer[entries];
+        for (int i = 0; i < entries; i++) {
+            data[i] = i;
+        }
+        Object root = configuration.build(data);
+        Footprint footprint = walker.walk(root);
+        // 保证统计期间 data 一直可达
+        Reference.reachabilityFence(data);
+        return new Report(configuration, entries, footprint);
+    }
+
+    /**
+     * 与基线对比，返回单条目开销超过基线 (1 + tolerance) 倍的配置，基线的 key 为配置名，value 为单条目开销字节数
+     */
+    public static List<String> checkRegression(List<Report> reports, Properties baseline, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        for (Report report : reports) {
+            String expected = baseline.getProperty(report.configuration.name());
+            if (expected == null) {
+                continue;
+            }
+            double limit = Double.parseDouble(expected) * (1 + tolerance);
+            double actual = report.overheadPerEntry();
+            if (actual > limit) {
+                regressions.add(String.format("%s: %.1f bytes/entry, baseline %s (limit %.1f)",
+                        report.configuration, actual, expected, limit));
+            }
+        }
+        return regressions;
+    }
+
+    public static String header() {
+        return String.format("%-40s %10s %8s %8s %8s %8s %8s %10s",
+                "configuration", "entries", "node", "table", "buffer", "sketch", "other", "overhead");
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_ENTRIES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        FootprintAnalyzer analyzer = new FootprintAnalyzer();
+        System.out.println("reference size: " + ObjectGraphWalker.referenceSize() + " bytes, unit: bytes/entry");
+        System.out.println(header());
+        for (CacheConfiguration configuration : CacheConfiguration.values()) {
+            for (int entries : sizes) {
+                System.out.println(analyzer.analyze(configuration, entries));
+            }
+        }
+    }
+
+    public static final class Report {
+
+        private final CacheConfiguration configuration;
+
+        private final int entries;
+
+        private final Footprint footprint;
+
+        Report(CacheConfiguration configuration, int entries, Footprint footprint) {
+            this.configuration = configuration;
+            this.entries = entries;
+            this.footprint = footprint;
+        }
+
+        public CacheConfiguration configuration() {
+            return configuration;
+        }
+
+        public int entries() {
+            return entries;
+        }
+
+        public Footprint footprint() {
+            return footprint;
+        }
+
+        public double perEntry(Category category) {
+            return (double) footprint.bytes(category) / entries;
+        }
+
+        // 不包含 key 和 value 本身的单条目开销
+        public double overheadPerEntry() {
+            return (double) footprint.overheadBytes() / entries;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %10d %8.1f %8.1f %8.1f %8.1f %8.1f %10.1f",
+                    configuration, entries, perEntry(Category.NODE), perEntry(Category.TABLE),
+                    perEntry(Category.BUFFER), perEntry(Category.SKETCH), perEntry(Category.OTHER),
+                    overheadPerEntry());
+        }
+    }
+}
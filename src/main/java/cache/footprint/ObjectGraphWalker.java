@@ -0,0 +1,324 @@
+package cache.footprint;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 遍历对象图并统计保留堆大小（retained heap）
+ * <p>
+ * 对象的浅大小（shallow size）根据当前 JVM 实际的字段偏移量计算：取最后一个字段的偏移量加字段长度，再按 8 字节对齐，
+ * 这样压缩指针、压缩类指针是否开启都能被正确反映。字段通过 Unsafe 读取，不需要对 java.base 中的类调用 setAccessible，
+ * Unsafe 的使用集中在 {@link UnsafeAccess} 中
+ * <p>
+ * 遍历时每个对象归属于一个 {@link Category}：对象自身能被 classifier 识别时使用识别结果，否则继承引用它的父对象的类别，
+ * 例如 FrequencySketch 中的 long[] 会被计入 SKETCH
+ */
+public class ObjectGraphWalker {
+
+    public enum Category {
+        // 每个缓存条目对应的节点，如 Caffeine 的 Node、ConcurrentHashMap 的 Node、Guava 的 ReferenceEntry 及引用对象
+        NODE,
+        // 哈希表数组
+        TABLE,
+        // 读写缓冲区
+        BUFFER,
+        // 频率草图
+        SKETCH,
+        // 用户的 key 和 value
+        DATA,
+        // 其他：缓存对象本身、时间轮、统计计数器等
+        OTHER
+    }
+
+    // 对象头大小，压缩类指针开启时为 12 字节
+    private static final long OBJECT_HEADER;
+
+    private static final int OBJECT_ALIGNMENT = 8;
+
+    static {
+        try {
+            OBJECT_HEADER = UnsafeAccess.objectFieldOffset(HeaderProbe.class.getDeclaredField("probe"));
+        } catch (NoSuchFieldException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // 不再继续遍历的对象：它们是多个缓存共享的，不属于某一个缓存的开销
+    private static final List<Class<?>> BOUNDARIES = List.of(
+            Class.class, ClassLoader.class, Thread.class, ThreadGroup.class, Executor.class);
+
+    private final Function<Object, Category> classifier;
+
+    private final Predicate<Object> isData;
+
+    // 每个类需要遍历的引用字段及它的浅大小，避免重复反射
+    private final Map<Class<?>, ClassLayout> layouts = new ConcurrentHashMap<>();
+
+    /**
+     * @param classifier 识别对象所属类别，无法识别时返回 null
+     * @param isData     判断对象是否为用户数据，用户数据被计入 DATA 且不再继续遍历
+     */
+    public ObjectGraphWalker(Function<Object, Category> classifier, Predicate<Object> isData) {
+        this.classifier = classifier;
+        this.isData = isData;
+    }
+
+    // 引用大小，压缩指针开启时为 4 字节
+    public static int referenceSize() {
+        return UnsafeAccess.arrayIndexScale(Object[].class);
+    }
+
+    public Footprint walk(Object root) {
+        Footprint footprint = new Footprint();
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> objects = new ArrayDeque<>();
+        Deque<Category> categories = new ArrayDeque<>();
+        objects.push(root);
+        categories.push(Category.OTHER);
+        visited.add(root);
+
+        while (!objects.isEmpty()) {
+            Object obj = objects.pop();
+            Category inherited = categories.pop();
+            Category category = categorize(obj, inherited);
+            Class<?> clazz = obj.getClass();
+
+            if (clazz.isArray()) {
+                footprint.add(category, arraySize(obj, clazz));
+                if (!clazz.getComponentType().isPrimitive()) {
+                    for (Object element : (Object[]) obj) {
+                        push(element, category, visited, objects, categories);
+                    }
+                }
+                continue;
+            }
+
+            ClassLayout layout = layouts.computeIfAbsent(clazz, ClassLayout::new);
+            footprint.add(category, layout.shallowSize);
+            if (category == Category.DATA) {
+                continue;
+            }
+            for (long offset : layout.referenceOffsets) {
+                push(UnsafeAccess.getObject(obj, offset), category, visited, objects, categories);
+            }
+        }
+        return footprint;
+    }
+
+    private Category categorize(Object obj, Category inherited) {
+        if (isData.test(obj)) {
+            return Category.DATA;
+        }
+        Category category = classifier.apply(obj);
+        return category != null ? category : inherited;
+    }
+
+    private void push(Object obj, Category category, Set<Object> visited, Deque<Object> objects,
+                      Deque<Category> categories) {
+        if (obj == null || isBoundary(obj) || !visited.add(obj)) {
+            return;
+        }
+        objects.push(obj);
+        categories.push(category);
+    }
+
+    private static boolean isBoundary(Object obj) {
+        for (Class<?> boundary : BOUNDARIES) {
+            if (boundary.isInstance(obj)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long arraySize(Object array, Class<?> clazz) {
+        long size = UnsafeAccess.arrayBaseOffset(clazz) + (long) UnsafeAccess.arrayIndexScale(clazz) * Array.getLength(array);
+        return align(size);
+    }
+
+    private static long align(long size) {
+        return (size + OBJECT_ALIGNMENT - 1) / OBJECT_ALIGNMENT * OBJECT_ALIGNMENT;
+    }
+
+    private static final class ClassLayout {
+
+        final long shallowSize;
+
+        final long[] referenceOffsets;
+
+        ClassLayout(Class<?> clazz) {
+            long end = OBJECT_HEADER;
+            List<Long> offsets = new ArrayList<>();
+            for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    long offset;
+                    try {
+                        offset = UnsafeAccess.objectFieldOffset(field);
+                    } catch (UnsupportedOperationException e) {
+                        // 隐藏类（如 lambda）不支持获取偏移量，只计算对象头
+                        continue;
+                    }
+                    end = Math.max(end, offset + fieldSize(field.getType()));
+                    if (!field.getType().isPrimitive()) {
+                        offsets.add(offset);
+                    }
+                }
+            }
+            this.shallowSize = align(end);
+            this.referenceOffsets = offsets.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        private static int fieldSize(Class<?> type) {
+            if (type == long.class || type == double.class) {
+                return 8;
+            }
+            if (type == int.class || type == float.class) {
+                return 4;
+            }
+            if (type == short.class || type == char.class) {
+                return 2;
+            }
+            if (type == byte.class || type == boolean.class) {
+                return 1;
+            }
+            return referenceSize();
+        }
+    }
+
+    /**
+     * sun.misc.Unsafe 的全部使用都在这里。
+     * <p>
+     * 需要它的原因：遍历的对象大多在 java.base 中（ConcurrentHashMap 的 Node、数组等），没有 --add-opens 时
+     * 反射和 VarHandle 都无法读取它们的私有字段；Instrumentation#getObjectSize 需要以 agent 启动，测试和命令行中都不可用。
+     * 这里只读取字段偏移量和字段值，不写入内存。通过反射获取 MethodHandle 而不是在源码中引用 sun.misc.Unsafe，
+     * 编译时不会产生"内部专用 API"警告，Unsafe 不可用时在类初始化时失败
+     */
+    private static final class UnsafeAccess {
+
+        private static final MethodHandle OBJECT_FIELD_OFFSET;
+
+        private static final MethodHandle GET_OBJECT;
+
+        private static final MethodHandle ARRAY_BASE_OFFSET;
+
+        private static final MethodHandle ARRAY_INDEX_SCALE;
+
+        static {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                Object unsafe = field.get(null);
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                OBJECT_FIELD_OFFSET = lookup.findVirtual(unsafeClass, "objectFieldOffset",
+                        MethodType.methodType(long.class, Field.class)).bindTo(unsafe);
+                GET_OBJECT = lookup.findVirtual(unsafeClass, "getObject",
+                        MethodType.methodType(Object.class, Object.class, long.class)).bindTo(unsafe);
+                ARRAY_BASE_OFFSET = lookup.findVirtual(unsafeClass, "arrayBaseOffset",
+                        MethodType.methodType(int.class, Class.class)).bindTo(unsafe);
+                ARRAY_INDEX_SCALE = lookup.findVirtual(unsafeClass, "arrayIndexScale",
+                        MethodType.methodType(int.class, Class.class)).bindTo(unsafe);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        // 隐藏类（如 lambda）的字段会抛出 UnsupportedOperationException
+        static long objectFieldOffset(Field field) {
+            try {
+                return (long) OBJECT_FIELD_OFFSET.invokeExact(field);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        static Object getObject(Object obj, long offset) {
+            try {
+                return (Object) GET_OBJECT.invokeExact(obj, offset);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        static int arrayBaseOffset(Class<?> arrayClass) {
+            try {
+                return (int) ARRAY_BASE_OFFSET.invokeExact(arrayClass);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        static int arrayIndexScale(Class<?> arrayClass) {
+            try {
+                return (int) ARRAY_INDEX_SCALE.invokeExact(arrayClass);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    private static final class HeaderProbe {
+        byte probe;
+    }
+
+    // 按类别统计的字节数和对象数
+    public static final class Footprint {
+
+        private final long[] bytes = new long[Category.values().length];
+
+        private final long[] objects = new long[Category.values().length];
+
+        void add(Category category, long size) {
+            bytes[category.ordinal()] += size;
+            objects[category.ordinal()]++;
+        }
+
+        public long bytes(Category category) {
+            return bytes[category.ordinal()];
+        }
+
+        public long objects(Category category) {
+            return objects[category.ordinal()];
+        }
+
+        public long totalBytes() {
+            long total = 0;
+            for (long b : bytes) {
+                total += b;
+            }
+            return total;
+        }
+
+        // 不包含用户数据的开销
+        public long overheadBytes() {
+            return totalBytes() - bytes(Category.DATA);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package cache.jfr;
+
+import jdk.jfr.consumer.RecordedEvent;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按缓存名称汇总 {@link CacheEvents} 中的事件，既可以接收 RecordingStream 的实时事件，
+ * 也可以通过 RecordingFile 离线分析 .jfr 文件
+ */
+public class CacheDashboard {
+
+    private final Map<String, Metrics> metrics = new ConcurrentHashMap<>();
+
+    public void accept(RecordedEvent event) {
+        String name = event.getEventType().getName();
+        Metrics m = metrics.computeIfAbsent(event.getString("cacheName"), k -> new Metrics());
+        long nanos = event.getDuration().toNanos();
+        switch (name) {
+            case CacheEvents.LOAD:
+                m.loads.record(nanos);
+                if (!event.getBoolean("success")) {
+                    m.loadFailures.increment();
+                }
+                break;
+            case CacheEvents.REFRESH:
+                m.refreshes.record(nanos);
+                break;
+            case CacheEvents.EVICTION_BATCH:
+                m.evictionBatches.increment();
+                m.evictedEntries.add(event.getInt("entries"));
+                m.evictedWeight.add(event.getLong("weight"));
+                break;
+            case CacheEvents.MAINTENANCE:
+                m.maintenance.record(nanos);
+                break;
+            case CacheEvents.LOCK_WAIT:
+                m.lockWaits.record(event.getDuration("waitTime").toNanos());
+                break;
+            case CacheEvents.SLOW_OPERATION:
+                m.slowOperations.increment();
+                break;
+            default:
+                break;
+        }
+    }
+
+    public Metrics metrics(String cacheName) {
+        return metrics.get(cacheName);
+    }
+
+    public void reset() {
+        metrics.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format("%-16s %22s %22s %14s %22s %22s %6s%n",
+                "cache", "load(count/avg/max)", "refresh(count/avg/max)", "evicted(batch)",
+                "maintain(count/avg/max)", "lockWait(count/avg/max)", "slow"));
+        new TreeMap<>(metrics).forEach((cacheName, m) -> sb.append(String.format("%-16s %22s %22s %14s %22s %22s %6d%n",
+                cacheName, m.loads, m.refreshes, m.evictedEntries.sum() + "(" + m.evictionBatches.sum() + ")",
+                m.maintenance, m.lockWaits, m.slowOperations.sum())));
+        return sb.toString();
+    }
+
+    public static final class Metrics {
+
+        final Timer loads = new Timer();
+        final LongAdder loadFailures = new LongAdder();
+        final Timer refreshes = new Timer();
+        final LongAdder evictionBatches = new LongAdder();
+        final LongAdder evictedEntries = new LongAdder();
+        final LongAdder evictedWeight = new LongAdder();
+        final Timer maintenance = new Timer();
+        final Timer lockWaits = new Timer();
+        final LongAdder slowOperations = new LongAdder();
+
+        public long loadCount() {
+            return loads.count.sum();
+        }
+
+        public long loadFailures() {
+            return loadFailures.sum();
+        }
+
+        public long refreshCount() {
+            return refreshes.count.sum();
+        }
+
+        public long evictionBatches() {
+            return evictionBatches.sum();
+        }
+
+        public long evictedEntries() {
+            return evictedEntries.sum();
+        }
+
+        public long maintenanceCount() {
+            return maintenance.count.sum();
+        }
+
+        public Duration maxMaintenance() {
+            return Duration.ofNanos(maintenance.max.get());
+        }
+
+        public long lockWaitCount() {
+            return lockWaits.count.sum();
+        }
+
+        public Duration maxLockWait() {
+            return Duration.ofNanos(lockWaits.max.get());
+        }
+
+        public long slowOperations() {
+            return slowOperations.sum();
+        }
+    }
+
+    static final class Timer {
+
+        final LongAdder count = new LongAdder();
+        final LongAdder total = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        @Override
+        public String toString() {
+            long c = count.sum();
+            long avgMillis = c == 0 ? 0 : total.sum() / c / 1_000_000;
+            return c + "/" + avgMillis + "ms/" + max.get() / 1_000_000 + "ms";
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package cache.jfr;
+
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * 基于 RecordingStream 的实时缓存面板，在进程内持续消费 {@link CacheEvents}，按 interval 输出一次汇总
+ * <p>
+ * RecordingStream 是 JDK 14 引入的 API，在 JDK 11 ~ 13 中构建时 pom 的 jdk-before-14 profile 会自动排除这个类和它的测试；
+ * 这时可以用 jcmd JFR.dump 导出文件后通过 RecordingFile 把事件交给 {@link CacheDashboard}
+ */
+public final class CacheEventStream implements AutoCloseable {
+
+    private static final String[] EVENTS = {
+            CacheEvents.LOAD, CacheEvents.REFRESH, CacheEvents.EVICTION_BATCH,
+            CacheEvents.MAINTENANCE, CacheEvents.LOCK_WAIT, CacheEvents.SLOW_OPERATION
+    };
+
+    private final RecordingStream stream = new RecordingStream();
+
+    private final CacheDashboard dashboard = new CacheDashboard();
+
+    private long lastReport = System.nanoTime();
+
+    private CacheEventStream(Duration interval, Consumer<CacheDashboard> reporter) {
+        for (String event : EVENTS) {
+            // 使用事件上 @Threshold 注解声明的默认阈值
+            stream.enable(event);
+            stream.onEvent(event, dashboard::accept);
+        }
+        stream.onFlush(() -> {
+            long now = System.nanoTime();
+            if (now - lastReport >= interval.toNanos()) {
+                lastReport = now;
+                reporter.accept(dashboard);
+            }
+        });
+    }
+
+    public static CacheEventStream start(Duration interval, Consumer<CacheDashboard> reporter) {
+        CacheEventStream eventStream = new CacheEventStream(interval, reporter);
+        eventStream.stream.startAsync();
+        return eventStream;
+    }
+
+    // 按默认的 1 秒间隔打印面板
+    public static CacheEventStream start() {
+        return start(Duration.ofSeconds(1), System.out::println);
+    }
+
+    public CacheDashboard dashboard() {
+        return dashboard;
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+}
@@ -0,0 +1,152 @@
+package cache.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * 缓存相关的 JFR 事件定义
+ * <p>
+ * 事件默认不采集栈信息，避免常开时的开销；只有耗时超过 {@link CacheInstrumentation} 中配置的阈值时，
+ * 才会额外提交一个带栈信息的 {@link SlowOperation} 事件。各事件的阈值可以在 .jfc 配置或 Recording#enable 中覆盖
+ */
+public final class CacheEvents {
+
+    public static final String LOAD = "cache.Load";
+    public static final String REFRESH = "cache.Refresh";
+    public static final String EVICTION_BATCH = "cache.EvictionBatch";
+    public static final String MAINTENANCE = "cache.Maintenance";
+    public static final String LOCK_WAIT = "cache.LockWait";
+    public static final String SLOW_OPERATION = "cache.SlowOperation";
+
+    private CacheEvents() {
+    }
+
+    @Name(LOAD)
+    @Label("Cache Load")
+    @Category("Cache")
+    @Description("CacheLoader#load 执行耗时")
+    @Enabled
+    @Threshold("10 ms")
+    @StackTrace(false)
+    public static class Load extends Event {
+
+        @Label("Cache Name")
+        public String cacheName;
+
+        @Label("Key")
+        public String key;
+
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name(REFRESH)
+    @Label("Cache Refresh")
+    @Category("Cache")
+    @Description("CacheLoader#reload 执行耗时")
+    @Enabled
+    @Threshold("10 ms")
+    @StackTrace(false)
+    public static class Refresh extends Event {
+
+        @Label("Cache Name")
+        public String cacheName;
+
+        @Label("Key")
+        public String key;
+
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name(EVICTION_BATCH)
+    @Label("Cache Eviction Batch")
+    @Category("Cache")
+    @Description("一次维护任务中被驱逐的条目")
+    @Enabled
+    @Threshold("0 ms")
+    @StackTrace(false)
+    public static class EvictionBatch extends Event {
+
+        @Label("Cache Name")
+        public String cacheName;
+
+        @Label("Entries")
+        public int entries;
+
+        @Label("Weight")
+        @DataAmount
+        public long weight;
+
+        @Label("Size Evictions")
+        public int size;
+
+        @Label("Expired Evictions")
+        public int expired;
+
+        @Label("Collected Evictions")
+        public int collected;
+    }
+
+    @Name(MAINTENANCE)
+    @Label("Cache Maintenance")
+    @Category("Cache")
+    @Description("Caffeine 提交到 executor 的维护任务（排空缓冲区、驱逐、过期清理、移除通知）及 cleanUp 的执行耗时")
+    @Enabled
+    @Threshold("1 ms")
+    @StackTrace(false)
+    public static class Maintenance extends Event {
+
+        @Label("Cache Name")
+        public String cacheName;
+
+        @Label("Evicted Entries")
+        public int evicted;
+    }
+
+    @Name(LOCK_WAIT)
+    @Label("Cache Lock Wait")
+    @Category("Cache")
+    @Description("获取缓存时等待的时间，包括 ConcurrentHashMap 桶锁、Guava Segment 锁以及等待其他线程加载同一个 key，"
+            + "事件的持续时间为整个 get 的耗时，等待时间见 waitTime")
+    @Enabled
+    @StackTrace(false)
+    public static class LockWait extends Event {
+
+        @Label("Cache Name")
+        public String cacheName;
+
+        @Label("Key")
+        public String key;
+
+        @Label("Wait Time")
+        @Timespan
+        public long waitTime;
+    }
+
+    @Name(SLOW_OPERATION)
+    @Label("Cache Slow Operation")
+    @Category("Cache")
+    @Description("耗时超过栈信息阈值的缓存操作，附带栈信息")
+    @Enabled
+    @StackTrace(true)
+    public static class SlowOperation extends Event {
+
+        @Label("Cache Name")
+        public String cacheName;
+
+        @Label("Operation")
+        public String operation;
+
+        @Label("Key")
+        public String key;
+    }
+}
@@ -0,0 +1,554 @@
+package cache.jfr;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+import com.google.common.cache.ForwardingLoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.checkerframework.checker.index.qual.NonNegative;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 为 Caffeine 和 Guava 缓存发出 JFR 事件的包装器，TestStatistics 中的统计只有累计值，
+ * 无法把延迟尖刺和某一次驱逐、Guava lockedGetOrLoad 的等待或 Caffeine 的慢维护任务对应起来
+ * <p>
+ * 使用方式：
+ * <pre>{@code
+ * CacheInstrumentation instrumentation = CacheInstrumentation.named("users");
+ * Cache<String, String> cache = instrumentation.instrument(Caffeine.newBuilder()
+ *         .maximumSize(10_000)
+ *         .executor(instrumentation.executor(ForkJoinPool.commonPool()))
+ *         .recordStats(instrumentation.statsCounter(ConcurrentStatsCounter::new))
+ *         .build());
+ * }</pre>
+ * 没有开启录制（或录制中关闭了全部缓存事件）时，包装器只做一次 isEnabled 判断就直接调用被包装的方法，
+ * 不读取时钟、不访问 ThreadLocal、也不创建事件对象。录制开始或结束瞬间正在执行的操作，等待时间可能不准确
+ */
+public final class CacheInstrumentation {
+
+    // 只用于 isEnabled 判断，录制开启后 JFR 修改的是事件类的静态状态，所以可以共享实例
+    private static final CacheEvents.Load LOAD = new CacheEvents.Load();
+
+    private static final CacheEvents.Refresh REFRESH = new CacheEvents.Refresh();
+
+    private static final CacheEvents.EvictionBatch EVICTION_BATCH = new CacheEvents.EvictionBatch();
+
+    private static final CacheEvents.Maintenance MAINTENANCE = new CacheEvents.Maintenance();
+
+    private static final CacheEvents.LockWait LOCK_WAIT = new CacheEvents.LockWait();
+
+    private static final CacheEvents.SlowOperation SLOW_OPERATION = new CacheEvents.SlowOperation();
+
+    private final String cacheName;
+
+    private final long stackTraceThresholdNanos;
+
+    private final long lockWaitThresholdNanos;
+
+    // 当前线程正在执行的维护任务中驱逐的条目，为 null 表示不在维护任务中
+    private final ThreadLocal<EvictionBatch> maintenance = new ThreadLocal<>();
+
+    // 当前线程执行 CacheLoader 的累计耗时和次数，用于从总耗时中减去自身的加载时间得到等待时间
+    private final ThreadLocal<LoaderTime> ownLoads = ThreadLocal.withInitial(LoaderTime::new);
+
+    private CacheInstrumentation(String cacheName, Duration stackTraceThreshold, Duration lockWaitThreshold) {
+        this.cacheName = Objects.requireNonNull(cacheName);
+        this.stackTraceThresholdNanos = stackTraceThreshold.toNanos();
+        this.lockWaitThresholdNanos = lockWaitThreshold.toNanos();
+    }
+
+    public static CacheInstrumentation named(String cacheName) {
+        return new CacheInstrumentation(cacheName, Duration.ofMillis(100), Duration.ofMillis(10));
+    }
+
+    // 耗时超过该阈值的操作会额外提交带栈信息的 SlowOperation 事件
+    public CacheInstrumentation stackTraceThreshold(Duration threshold) {
+        return new CacheInstrumentation(cacheName, threshold, Duration.ofNanos(lockWaitThresholdNanos));
+    }
+
+    // 等待时间是从总耗时中推算出来的，无法使用事件自身的 @Threshold，需要单独指定阈值
+    public CacheInstrumentation lockWaitThreshold(Duration threshold) {
+        return new CacheInstrumentation(cacheName, Duration.ofNanos(stackTraceThresholdNanos), threshold);
+    }
+
+    public String cacheName() {
+        return cacheName;
+    }
+
+    // 包装 Caffeine 的 CacheLoader，记录 load 和 reload（refreshAfterWrite、refresh 触发）
+    public <K, V> CacheLoader<K, V> loader(CacheLoader<K, V> delegate) {
+        return new CacheLoader<K, V>() {
+            @Override
+            public V load(K key) throws Exception {
+                return timedLoad(key, () -> delegate.load(key));
+            }
+
+            @Override
+            public Map<? extends K, ? extends V> loadAll(Set<? extends K> keys) throws Exception {
+                return timedLoad(keys, () -> delegate.loadAll(keys));
+            }
+
+            @Override
+            public V reload(K key, V oldValue) throws Exception {
+                return timedRefresh(key, () -> delegate.reload(key, oldValue));
+            }
+        };
+    }
+
+    // 包装 Guava 的 CacheLoader
+    public <K, V> com.google.common.cache.CacheLoader<K, V> loader(com.google.common.cache.CacheLoader<K, V> delegate) {
+        return new com.google.common.cache.CacheLoader<K, V>() {
+            @Override
+            public V load(K key) throws Exception {
+                return timedLoad(key, () -> delegate.load(key));
+            }
+
+            @Override
+            public Map<K, V> loadAll(Iterable<? extends K> keys) throws Exception {
+                return timedLoad(keys, () -> delegate.loadAll(keys));
+            }
+
+            @Override
+            public ListenableFuture<V> reload(K key, V oldValue) throws Exception {
+                return timedRefresh(key, () -> delegate.reload(key, oldValue));
+            }
+        };
+    }
+
+    /**
+     * 包装传给 Caffeine 的 executor，缓存提交到这里的任务都按维护任务计时：排空缓冲区、驱逐、过期清理和移除通知。
+     * 配置了 scheduler 时，到期的清理任务也会交给这个 executor 执行。
+     * 任务中执行了 CacheLoader（refreshAfterWrite、AsyncCache 的加载）时已经有 Load、Refresh 事件，不再提交 Maintenance 事件。
+     * 不根据 Caffeine 内部任务的类名识别维护任务，升级 Caffeine 后仍然有效
+     */
+    public Executor executor(Executor delegate) {
+        Objects.requireNonNull(delegate);
+        return task -> delegate.execute(() -> maintain(task));
+    }
+
+    // 包装 Caffeine 的 StatsCounter，把同一次维护任务中的驱逐合并成一个 EvictionBatch 事件
+    public Supplier<StatsCounter> statsCounter(Supplier<? extends StatsCounter> delegate) {
+        return () -> new EvictionStatsCounter(delegate.get());
+    }
+
+    // 包装 Caffeine 的 Cache，记录 get 时的等待时间，cleanUp 计为一次维护任务
+    public <K, V> Cache<K, V> instrument(Cache<K, V> cache) {
+        return new InstrumentedCache<>(cache);
+    }
+
+    // 包装 Caffeine 的 LoadingCache，CacheLoader 需要通过 loader 包装才会记录加载事件
+    public <K, V> LoadingCache<K, V> instrument(LoadingCache<K, V> cache) {
+        return new InstrumentedLoadingCache<>(cache);
+    }
+
+    // 包装 Guava 的 LoadingCache，记录 get 时在 lockedGetOrLoad 中等待锁或等待其他线程加载的时间
+    public <K, V> com.google.common.cache.LoadingCache<K, V> instrument(com.google.common.cache.LoadingCache<K, V> cache) {
+        return new ForwardingLoadingCache.SimpleForwardingLoadingCache<K, V>(cache) {
+            @Override
+            public V get(K key) throws ExecutionException {
+                return timedGet(key, () -> super.get(key));
+            }
+
+            @Override
+            public V getUnchecked(K key) {
+                return timedGet(key, () -> super.getUnchecked(key));
+            }
+
+            @Override
+            public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+                return timedGet(key, () -> super.get(key, () -> timedLoad(key, valueLoader::call)));
+            }
+        };
+    }
+
+    // 等待时间和维护任务的判断依赖加载耗时，任一缓存事件开启时都需要完整计时
+    private static boolean recording() {
+        return LOCK_WAIT.isEnabled() || SLOW_OPERATION.isEnabled() || LOAD.isEnabled() || REFRESH.isEnabled()
+                || MAINTENANCE.isEnabled() || EVICTION_BATCH.isEnabled();
+    }
+
+    private void maintain(Runnable task) {
+        if (!recording()) {
+            task.run();
+            return;
+        }
+        EvictionBatch outer = maintenance.get();
+        EvictionBatch batch = new EvictionBatch();
+        maintenance.set(batch);
+        LoaderTime own = ownLoads.get();
+        int callsBefore = own.calls;
+        CacheEvents.Maintenance event = new CacheEvents.Maintenance();
+        CacheEvents.SlowOperation slow = new CacheEvents.SlowOperation();
+        long start = System.nanoTime();
+        event.begin();
+        slow.begin();
+        try {
+            task.run();
+        } finally {
+            if (outer == null) {
+                maintenance.remove();
+            } else {
+                maintenance.set(outer);
+            }
+            event.end();
+            if (own.calls != callsBefore) {
+                // 执行的是加载任务，耗时已经由 Load、Refresh 事件记录
+                commitBatch(batch);
+                return;
+            }
+            if (event.shouldCommit()) {
+                event.cacheName = cacheName;
+                event.evicted = batch.entries;
+                event.commit();
+            }
+            commitBatch(batch);
+            commitSlow(slow, start, "maintenance", null);
+        }
+    }
+
+    private <T> T timedLoad(Object key, ThrowingSupplier<T> loader) throws Exception {
+        if (!recording()) {
+            return loader.get();
+        }
+        CacheEvents.Load event = new CacheEvents.Load();
+        CacheEvents.SlowOperation slow = new CacheEvents.SlowOperation();
+        long start = System.nanoTime();
+        event.begin();
+        slow.begin();
+        boolean success = false;
+        try {
+            T value = loader.get();
+            success = true;
+            return value;
+        } finally {
+            event.end();
+            ownLoads.get().record(System.nanoTime() - start);
+            if (event.shouldCommit()) {
+                event.cacheName = cacheName;
+                event.key = String.valueOf(key);
+                event.success = success;
+                event.commit();
+            }
+            commitSlow(slow, start, "load", key);
+        }
+    }
+
+    private <T> T timedRefresh(Object key, ThrowingSupplier<T> loader) throws Exception {
+        if (!recording()) {
+            return loader.get();
+        }
+        CacheEvents.Refresh event = new CacheEvents.Refresh();
+        CacheEvents.SlowOperation slow = new CacheEvents.SlowOperation();
+        long start = System.nanoTime();
+        event.begin();
+        slow.begin();
+        boolean success = false;
+        try {
+            T value = loader.get();
+            success = true;
+            return value;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.cacheName = cacheName;
+                event.key = String.valueOf(key);
+                event.success = success;
+                event.commit();
+            }
+            ownLoads.get().record(System.nanoTime() - start);
+            commitSlow(slow, start, "refresh", key);
+        }
+    }
+
+    // 总耗时减去当前线程自身执行 CacheLoader 的时间，即为等待锁或等待其他线程加载的时间
+    private <T, X extends Exception> T timedGet(Object key, ThrowingSupplier<T> getter) throws X {
+        if (!recording()) {
+            return sneaky(getter);
+        }
+        CacheEvents.LockWait event = new CacheEvents.LockWait();
+        CacheEvents.SlowOperation slow = new CacheEvents.SlowOperation();
+        LoaderTime own = ownLoads.get();
+        long ownBefore = own.nanos;
+        long start = System.nanoTime();
+        event.begin();
+        slow.begin();
+        try {
+            return sneaky(getter);
+        } finally {
+            event.end();
+            long waited = System.nanoTime() - start - (own.nanos - ownBefore);
+            commitLockWait(event, key, waited);
+            if (waited >= stackTraceThresholdNanos) {
+                commitSlow(slow, start, "lockWait", key);
+            }
+        }
+    }
+
+    private void commitLockWait(CacheEvents.LockWait event, Object key, long waitedNanos) {
+        if (waitedNanos >= lockWaitThresholdNanos && event.shouldCommit()) {
+            event.cacheName = cacheName;
+            event.key = String.valueOf(key);
+            event.waitTime = waitedNanos;
+            event.commit();
+        }
+    }
+
+    private void commitBatch(EvictionBatch batch) {
+        if (batch.entries == 0 || !EVICTION_BATCH.isEnabled()) {
+            return;
+        }
+        CacheEvents.EvictionBatch event = new CacheEvents.EvictionBatch();
+        if (event.shouldCommit()) {
+            event.cacheName = cacheName;
+            event.entries = batch.entries;
+            event.weight = batch.weight;
+            event.size = batch.size;
+            event.expired = batch.expired;
+            event.collected = batch.collected;
+            event.commit();
+        }
+    }
+
+    private void commitSlow(CacheEvents.SlowOperation slow, long start, String operation, Object key) {
+        if (System.nanoTime() - start < stackTraceThresholdNanos) {
+            return;
+        }
+        slow.end();
+        if (slow.shouldCommit()) {
+            slow.cacheName = cacheName;
+            slow.operation = operation;
+            slow.key = key == null ? null : String.valueOf(key);
+            slow.commit();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, X extends Exception> T sneaky(ThrowingSupplier<T> supplier) throws X {
+        try {
+            return supplier.get();
+        } catch (Exception e) {
+            throw (X) e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ThrowingSupplier<T> {
+        T get() throws Exception;
+    }
+
+    private static final class LoaderTime {
+        long nanos;
+        int calls;
+
+        void record(long elapsed) {
+            nanos += elapsed;
+            calls++;
+        }
+    }
+
+    private static final class EvictionBatch {
+        int entries;
+        long weight;
+        int size;
+        int expired;
+        int collected;
+
+        void record(int weight, RemovalCause cause) {
+            this.entries++;
+            this.weight += weight;
+            if (cause == RemovalCause.SIZE) {
+                size++;
+            } else if (cause == RemovalCause.EXPIRED) {
+                expired++;
+            } else if (cause == RemovalCause.COLLECTED) {
+                collected++;
+            }
+        }
+    }
+
+    private final class EvictionStatsCounter implements StatsCounter {
+
+        private final StatsCounter delegate;
+
+        EvictionStatsCounter(StatsCounter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void recordHits(@NonNegative int count) {
+            delegate.recordHits(count);
+        }
+
+        @Override
+        public void recordMisses(@NonNegative int count) {
+            delegate.recordMisses(count);
+        }
+
+        @Override
+        public void recordLoadSuccess(@NonNegative long loadTime) {
+            delegate.recordLoadSuccess(loadTime);
+        }
+
+        @Override
+        public void recordLoadFailure(@NonNegative long loadTime) {
+            delegate.recordLoadFailure(loadTime);
+        }
+
+        @Override
+        public void recordEviction(@NonNegative int weight, RemovalCause cause) {
+            delegate.recordEviction(weight, cause);
+            if (!EVICTION_BATCH.isEnabled()) {
+                return;
+            }
+            EvictionBatch batch = maintenance.get();
+            if (batch != null) {
+                batch.record(weight, cause);
+            } else {
+                // 不在已识别的维护任务中（如 executor 拒绝后由调用线程执行），单独作为一批提交
+                EvictionBatch single = new EvictionBatch();
+                single.record(weight, cause);
+                commitBatch(single);
+            }
+        }
+
+        @Override
+        public CacheStats snapshot() {
+            return delegate.snapshot();
+        }
+    }
+
+    private class InstrumentedCache<K, V> implements Cache<K, V> {
+
+        private final Cache<K, V> delegate;
+
+        InstrumentedCache(Cache<K, V> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public V getIfPresent(K key) {
+            return delegate.getIfPresent(key);
+        }
+
+        @Override
+        public V get(K key, Function<? super K, ? extends V> mappingFunction) {
+            // mappingFunction 在 ConcurrentHashMap#compute 中持有桶锁执行，等待时间包括等待桶锁
+            return timedGet(key, () -> delegate.get(key, k -> {
+                try {
+                    return timedLoad(k, () -> mappingFunction.apply(k));
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+
+        @Override
+        public Map<K, V> getAllPresent(Iterable<? extends K> keys) {
+            return delegate.getAllPresent(keys);
+        }
+
+        @Override
+        public Map<K, V> getAll(Iterable<? extends K> keys,
+                                Function<? super Set<? extends K>, ? extends Map<? extends K, ? extends V>> mappingFunction) {
+            return delegate.getAll(keys, mappingFunction);
+        }
+
+        @Override
+        public void put(K key, V value) {
+            delegate.put(key, value);
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends V> map) {
+            delegate.putAll(map);
+        }
+
+        @Override
+        public void invalidate(K key) {
+            delegate.invalidate(key);
+        }
+
+        @Override
+        public void invalidateAll(Iterable<? extends K> keys) {
+            delegate.invalidateAll(keys);
+        }
+
+        @Override
+        public void invalidateAll() {
+            delegate.invalidateAll();
+        }
+
+        @Override
+        public @NonNegative long estimatedSize() {
+            return delegate.estimatedSize();
+        }
+
+        @Override
+        public CacheStats stats() {
+            return delegate.stats();
+        }
+
+        @Override
+        public ConcurrentMap<K, V> asMap() {
+            return delegate.asMap();
+        }
+
+        @Override
+        public void cleanUp() {
+            maintain(delegate::cleanUp);
+        }
+
+        @Override
+        public Policy<K, V> policy() {
+            return delegate.policy();
+        }
+    }
+
+    private final class InstrumentedLoadingCache<K, V> extends InstrumentedCache<K, V> implements LoadingCache<K, V> {
+
+        private final LoadingCache<K, V> delegate;
+
+        InstrumentedLoadingCache(LoadingCache<K, V> delegate) {
+            super(delegate);
+            this.delegate = delegate;
+        }
+
+        // 与 Cache#get 相同，CacheLoader 在桶锁中执行，等待时间包括等待其他线程加载同一个 key
+        @Override
+        public V get(K key) {
+            return timedGet(key, () -> delegate.get(key));
+        }
+
+        @Override
+        public Map<K, V> getAll(Iterable<? extends K> keys) {
+            return timedGet(keys, () -> delegate.getAll(keys));
+        }
+
+        @Override
+        public CompletableFuture<V> refresh(K key) {
+            return delegate.refresh(key);
+        }
+
+        @Override
+        public CompletableFuture<Map<K, V>> refreshAll(Iterable<? extends K> keys) {
+            return delegate.refreshAll(keys);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestCacheScanner {
+
+    private static Cache<String, Integer> cache(int size) {
+        Cache<String, Integer> cache = Caffeine.newBuilder()
+                .maximumSize(size * 2L)
+                .executor(Runnable::run)
+                .recordStats()
+                .build();
+        for (int i = 0; i < size; i++) {
+            cache.put((i % 2 == 0 ? "user:" : "order:") + i, i);
+        }
+        return cache;
+    }
+
+    @Test
+    public void testFilter() {
+        Cache<String, Integer> cache = cache(10_000);
+
+        assertEquals(5_000, CacheScanner.of(cache).keyPrefix("user:").stream(false).count());
+        AtomicInteger count = new AtomicInteger();
+        CacheScanner.of(cache).filter(key -> key.endsWith("0")).forEach((key, value) -> count.incrementAndGet());
+        assertEquals(1_000, count.get());
+        assertEquals(10, CacheScanner.of(cache).limit(10).stream(false).count());
+
+        // 扫描不会计入命中统计，也不会改变访问顺序
+        assertEquals(0, cache.stats().requestCount());
+    }
+
+    @Test
+    public void testParallel() {
+        Cache<String, Integer> cache = cache(100_000);
+        long expected = (long) 99_999 * 100_000 / 2;
+
+        assertEquals(expected, CacheScanner.of(cache).stream(true).mapToLong(Map.Entry::getValue).sum());
+
+        AtomicLong sum = new AtomicLong();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        CacheScanner.of(cache).parallelForEach(pool, (key, value) -> sum.addAndGet(value));
+        pool.shutdown();
+        assertEquals(expected, sum.get());
+
+        assertThrows(UnsupportedOperationException.class,
+                () -> CacheScanner.of(cache).order(CacheScanner.Order.HOTTEST).stream(true));
+    }
+
+    @Test
+    public void testOrder() {
+        Cache<String, Integer> cache = cache(100);
+        // 多次访问 user:10 使其频率最高
+        for (int i = 0; i < 10; i++) {
+            cache.getIfPresent("user:10");
+        }
+        cache.cleanUp();
+
+        List<String> hottest = CacheScanner.of(cache).order(CacheScanner.Order.HOTTEST).keyPrefix("user:").limit(3)
+                .stream(false).map(Map.Entry::getKey).collect(Collectors.toList());
+        assertEquals(3, hottest.size());
+        assertEquals("user:10", hottest.get(0));
+
+        List<String> coldest = CacheScanner.of(cache).order(CacheScanner.Order.COLDEST).limit(3)
+                .stream(false).map(Map.Entry::getKey).collect(Collectors.toList());
+        assertFalse(coldest.contains("user:10"));
+
+        // 有序扫描必须指定 limit，避免在驱逐锁中复制整个缓存
+        assertThrows(UnsupportedOperationException.class,
+                () -> CacheScanner.of(cache).order(CacheScanner.Order.HOTTEST).forEach((key, value) -> {
+                }));
+
+        Cache<String, Integer> unbounded = Caffeine.newBuilder().build();
+        assertThrows(UnsupportedOperationException.class,
+                () -> CacheScanner.of(unbounded).order(CacheScanner.Order.COLDEST).limit(3).forEach((key, value) -> {
+                }));
+    }
+
+    @Test
+    public void testKeyStream() {
+        Cache<String, Integer> cache = cache(10_000);
+        assertEquals(5_000, CacheScanner.of(cache).keyPrefix("user:").keyStream(false).count());
+        assertEquals(10_000, CacheScanner.of(cache).keyStream(true).distinct().count());
+        assertEquals(0, cache.stats().requestCount());
+    }
+
+    // 同步执行的 executor 不会每批递归一层，批次很小、元素很多时也不会栈溢出
+    @Test
+    public void testSynchronousExecutor() {
+        Cache<String, Integer> cache = cache(100_000);
+        AtomicLong received = new AtomicLong();
+        List<Throwable> errors = new ArrayList<>();
+        CacheScanner.of(cache).keyPublisher(Runnable::run, 1).subscribe(new Flow.Subscriber<String>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(String item) {
+                received.incrementAndGet();
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        assertTrue(errors.isEmpty(), errors::toString);
+        assertEquals(100_000, received.get());
+    }
+
+    // 线程池饱和时由调用方执行（CallerRunsPolicy），任务有时同步、有时异步执行，onNext 仍然是串行的
+    @Test
+    public void testCallerRunsExecutor() throws InterruptedException {
+        Cache<String, Integer> cache = cache(50_000);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1), new ThreadPoolExecutor.CallerRunsPolicy());
+        CountDownLatch completed = new CountDownLatch(1);
+        AtomicInteger active = new AtomicInteger();
+        AtomicLong received = new AtomicLong();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        CacheScanner.of(cache).keyPublisher(executor, 1).subscribe(new Flow.Subscriber<String>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(String item) {
+                if (active.incrementAndGet() != 1) {
+                    errors.add(new AssertionError("concurrent onNext"));
+                }
+                received.incrementAndGet();
+                active.decrementAndGet();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+                completed.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(errors.isEmpty(), errors::toString);
+        assertEquals(50_000, received.get());
+    }
+
+    @Test
+    public void testPublisher() throws InterruptedException {
+        Cache<String, Integer> cache = cache(10_000);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch completed = new CountDownLatch(1);
+        AtomicLong requested = new AtomicLong();
+        AtomicLong received = new AtomicLong();
+        List<Throwable> errors = new ArrayList<>();
+
+        // 慢消费者，每次只请求 10 个元素，收到的元素数量不能超过请求数量
+        CacheScanner.of(cache).publisher(executor, 64).subscribe(new Flow.Subscriber<Map.Entry<String, Integer>>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                requested.addAndGet(10);
+                subscription.request(10);
+            }
+
+            @Override
+            public void onNext(Map.Entry<String, Integer> item) {
+                if (received.incrementAndGet() > requested.get()) {
+                    errors.add(new AssertionError("received more than requested"));
+                }
+                if (received.get() == requested.get()) {
+                    requested.addAndGet(10);
+                    subscription.request(10);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+                completed.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(errors.isEmpty(), errors::toString);
+        assertEquals(10_000, received.get());
+    }
+
+    @Test
+    public void testPublisherCancel() throws InterruptedException {
+        Cache<String, Integer> cache = cache(1_000);
+        CountDownLatch error = new CountDownLatch(1);
+        AtomicInteger received = new AtomicInteger();
+        List<Throwable> errors = new ArrayList<>();
+
+        CacheScanner.of(cache).publisher(Runnable::run).subscribe(new Flow.Subscriber<Map.Entry<String, Integer>>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Map.Entry<String, Integer> item) {
+                if (received.incrementAndGet() == 5) {
+                    subscription.cancel();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+                error.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                errors.add(new AssertionError("completed after cancel"));
+            }
+        });
+        assertEquals(5, received.get());
+        assertTrue(errors.isEmpty());
+
+        // 非正数的 request 以 onError 结束
+        CacheScanner.of(cache).publisher(Runnable::run).subscribe(new Flow.Subscriber<Map.Entry<String, Integer>>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(0);
+            }
+
+            @Override
+            public void onNext(Map.Entry<String, Integer> item) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+                error.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        assertTrue(error.await(1, TimeUnit.SECONDS));
+        assertTrue(errors.get(0) instanceof IllegalArgumentException);
+        assertEquals(0, cache.stats().requestCount());
+    }
+
+}
@@ -0,0 +1,307 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestCacheWarmer {
+
+    // 模拟数据库的批量查询，记录同时执行的查询数量
+    static class SlowLoader implements CacheLoader<Integer, String> {
+
+        final AtomicInteger running = new AtomicInteger();
+
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        volatile long latencyMillis;
+
+        // 不为 null 时推进虚拟时间而不是真正等待
+        final VirtualTime time;
+
+        SlowLoader(long latencyMillis) {
+            this(latencyMillis, null);
+        }
+
+        SlowLoader(long latencyMillis, VirtualTime time) {
+            this.latencyMillis = latencyMillis;
+            this.time = time;
+        }
+
+        @Override
+        public String load(Integer key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<Integer, String> loadAll(Set<? extends Integer> keys) throws InterruptedException {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            calls.incrementAndGet();
+            try {
+                if (time == null) {
+                    Thread.sleep(latencyMillis);
+                } else {
+                    time.elapse(Duration.ofMillis(latencyMillis));
+                }
+                Map<Integer, String> result = new HashMap<>();
+                for (Integer key : keys) {
+                    // 负数 key 在数据库中不存在
+                    if (key >= 0) {
+                        result.put(key, "value" + key);
+                    }
+                }
+                return result;
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    // 批次在虚拟时间的 executor 中排队，由测试线程依次执行，耗时固定，结果是确定的
+    @Test
+    public void testWarmUp() {
+        Cache<Integer, String> cache = Caffeine.newBuilder().build();
+        cache.put(0, "fresh");
+        VirtualTime time = new VirtualTime();
+        SlowLoader loader = new SlowLoader(1, time);
+        List<Integer> keys = IntStream.range(-100, 10_000).boxed().collect(Collectors.toList());
+        List<CacheWarmer.Progress> reports = new CopyOnWriteArrayList<>();
+
+        CacheWarmer.Warmup<Integer, String> warmup = CacheWarmer.newBuilder(KeySource.of(keys), loader)
+                .batchSize(100)
+                .maxConcurrency(8)
+                .executor(time.executor())
+                .ticker(time)
+                .progressListener(reports::add)
+                .build()
+                .start(cache);
+        time.runPending();
+        CacheWarmer.Progress progress = warmup.done().join();
+
+        System.out.println(progress);
+        assertTrue(progress.done());
+        assertEquals(9_999, progress.loaded());
+        assertEquals(1, progress.skipped());
+        assertEquals(100, progress.missing());
+        assertEquals(101, progress.batches());
+        assertEquals(10_000, cache.estimatedSize());
+        // 预热不会覆盖缓存中已有的值
+        assertEquals("fresh", cache.getIfPresent(0));
+        assertEquals("value9999", cache.getIfPresent(9_999));
+        assertEquals(101, reports.size());
+        // 耗时稳定，并发上限一直增长到 maxConcurrency
+        assertEquals(8, reports.stream().mapToInt(CacheWarmer.Progress::concurrency).max().orElse(0));
+        assertEquals(7, reports.stream().mapToInt(CacheWarmer.Progress::inFlight).max().orElse(0));
+    }
+
+    // 热点数据加载完成后就可以接收流量，其余数据继续在后台加载
+    @Test
+    public void testHotSetReady() {
+        Cache<Integer, String> cache = Caffeine.newBuilder().build();
+        SlowLoader loader = new SlowLoader(20);
+        List<Integer> hot = IntStream.range(0, 50).boxed().collect(Collectors.toList());
+        CacheWarmer.Warmup<Integer, String> warmup = CacheWarmer.newBuilder(KeySource.of(IntStream.range(0, 5_000).iterator()), loader)
+                .hotSet(hot)
+                .batchSize(50)
+                .maxConcurrency(2)
+                .build()
+                .start(cache);
+
+        warmup.ready().join();
+        CacheWarmer.Progress progress = warmup.progress();
+        System.out.println("ready: " + progress);
+        for (Integer key : hot) {
+            assertEquals("value" + key, cache.getIfPresent(key));
+        }
+        assertTrue(progress.ready());
+        assertFalse(warmup.done().isDone());
+
+        // 热点 key 在 key 来源中再次出现时跳过
+        progress = warmup.done().join();
+        System.out.println("done: " + progress);
+        assertEquals(5_000, progress.loaded());
+        assertEquals(50, progress.skipped());
+    }
+
+    // 数据源变慢后降低并发
+    @Test
+    public void testBackoff() {
+        Cache<Integer, String> cache = Caffeine.newBuilder().build();
+        VirtualTime time = new VirtualTime();
+        SlowLoader loader = new SlowLoader(5, time);
+        List<Integer> concurrency = new CopyOnWriteArrayList<>();
+        CacheWarmer.Warmup<Integer, String> warmup = CacheWarmer.newBuilder(KeySource.of(IntStream.range(0, 6_000).iterator()), loader)
+                .batchSize(50)
+                .maxConcurrency(8)
+                .executor(time.executor())
+                .ticker(time)
+                .progressListener(progress -> {
+                    concurrency.add(progress.concurrency());
+                    if (progress.batches() == 60) {
+                        loader.latencyMillis = 60;
+                    }
+                })
+                .build()
+                .start(cache);
+
+        time.runPending();
+        CacheWarmer.Progress progress = warmup.done().join();
+        System.out.println("concurrency: " + concurrency);
+        int fastPeak = concurrency.subList(0, 60).stream().max(Integer::compare).orElse(0);
+        // 变慢后减半到 1，之后最小耗时逐渐适应新的耗时，并发缓慢恢复
+        List<Integer> slowPhase = concurrency.subList(60, concurrency.size());
+        assertEquals(8, fastPeak);
+        assertEquals(1, slowPhase.stream().min(Integer::compare).orElse(0));
+        assertTrue(slowPhase.subList(slowPhase.size() / 2, slowPhase.size()).stream().allMatch(c -> c < 8));
+        assertEquals(6_000, progress.loaded());
+    }
+
+    // 进度回调抛出异常时预热继续进行；加载期间被业务写入的 key 不会覆盖，计入 skipped 而不是 loaded
+    @Test
+    public void testListenerFailureAndConcurrentWrite() {
+        Cache<Integer, String> cache = Caffeine.newBuilder().build();
+        VirtualTime time = new VirtualTime();
+        AtomicInteger listenerErrors = new AtomicInteger();
+        Executor executor = command -> time.executor().execute(() -> {
+            try {
+                command.run();
+            } catch (IllegalStateException e) {
+                listenerErrors.incrementAndGet();
+            }
+        });
+        CacheWarmer.Warmup<Integer, String> warmup = CacheWarmer.newBuilder(KeySource.of(IntStream.range(0, 100).iterator()),
+                        new CacheLoader<Integer, String>() {
+                            @Override
+                            public String load(Integer key) {
+                                throw new UnsupportedOperationException();
+                            }
+
+                            @Override
+                            public Map<Integer, String> loadAll(Set<? extends Integer> keys) {
+                                Map<Integer, String> result = new HashMap<>();
+                                for (Integer key : keys) {
+                                    if (key % 10 == 0) {
+                                        cache.put(key, "written");
+                                    }
+                                    result.put(key, "value" + key);
+                                }
+                                return result;
+                            }
+                        })
+                .batchSize(10)
+                .executor(executor)
+                .ticker(time)
+                .progressListener(progress -> {
+                    throw new IllegalStateException("listener failed");
+                })
+                .build()
+                .start(cache);
+        time.runPending();
+
+        CacheWarmer.Progress progress = warmup.done().join();
+        System.out.println(progress);
+        assertEquals(10, listenerErrors.get());
+        assertEquals(90, progress.loaded());
+        assertEquals(10, progress.skipped());
+        assertEquals(0, progress.missing());
+        assertEquals("written", cache.getIfPresent(0));
+    }
+
+    // 加载被中断时恢复执行线程的中断标记，批次计入 failed
+    @Test
+    public void testInterruptedLoad() {
+        CacheWarmer.Warmup<Integer, String> warmup = CacheWarmer.newBuilder(KeySource.of(List.of(1, 2, 3)),
+                        new CacheLoader<Integer, String>() {
+                            @Override
+                            public String load(Integer key) {
+                                throw new UnsupportedOperationException();
+                            }
+
+                            @Override
+                            public Map<Integer, String> loadAll(Set<? extends Integer> keys) throws InterruptedException {
+                                throw new InterruptedException();
+                            }
+                        })
+                .executor(Runnable::run)
+                .build()
+                .start(Caffeine.newBuilder().build());
+        assertTrue(Thread.interrupted());
+        assertEquals(3, warmup.done().join().failed());
+    }
+
+    // 从文件和分页查询中读取 key，加载失败的批次只计入 failed
+    @Test
+    public void testSourcesAndFailure() throws Exception {
+        Path file = Files.createTempFile("hot-keys", ".txt");
+        Files.write(file, List.of("1", "2", "", " 3 ", "4"));
+        Cache<Integer, String> cache = Caffeine.newBuilder().build();
+        CacheWarmer.Progress progress = CacheWarmer.newBuilder(KeySource.lines(file, Integer::valueOf),
+                        (Integer key) -> "value" + key)
+                .build()
+                .start(cache)
+                .done()
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(4, progress.loaded());
+        assertEquals("value3", cache.getIfPresent(3));
+        Files.delete(file);
+
+        // 按主键翻页查询 0 到 999
+        List<Integer> pages = new ArrayList<>();
+        KeySource<Integer> query = KeySource.paged(100, (after, limit) -> {
+            int from = after == null ? 0 : after + 1;
+            pages.add(from);
+            return IntStream.range(from, Math.min(from + limit, 1_000)).boxed().collect(Collectors.toList());
+        });
+        Cache<Integer, String> paged = Caffeine.newBuilder().build();
+        progress = CacheWarmer.newBuilder(query, (CacheLoader<Integer, String>) key -> {
+                    if (key >= 500 && key < 510) {
+                        throw new IllegalStateException("database unavailable");
+                    }
+                    return "value" + key;
+                })
+                .batchSize(10)
+                .build()
+                .start(paged)
+                .done()
+                .get(5, TimeUnit.SECONDS);
+        System.out.println(progress);
+        assertEquals(11, pages.size());
+        assertEquals(990, progress.loaded());
+        assertEquals(10, progress.failed());
+
+        // 热点数据加载失败时 ready 异常完成
+        CacheWarmer.Warmup<Integer, String> warmup = CacheWarmer.newBuilder(KeySource.of(List.<Integer>of()),
+                        (CacheLoader<Integer, String>) key -> {
+                            throw new IllegalStateException("database unavailable");
+                        })
+                .hotSet(List.of(1, 2, 3))
+                .build()
+                .start(Caffeine.newBuilder().build());
+        assertThrows(CompletionException.class, () -> warmup.ready().join());
+        assertEquals(3, warmup.done().get(5, TimeUnit.SECONDS).failed());
+    }
+
+}
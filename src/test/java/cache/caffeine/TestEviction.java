@@ -4,9 +4,11 @@ import com.github.benmanes.caffeine.cache.*;
 import org.checkerframework.checker.index.qual.NonNegative;
 import org.junit.jupiter.api.Test;
 
-import java.util.concurrent.Executors;
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
 // 验证驱逐策略
 // 在写操作，和偶尔的读操作中将会进行周期性的过期事件的执行
 public class TestEviction {
@@ -61,6 +63,7 @@ public class TestEviction {
 
     @Test
     public void time() {
+        VirtualTime time = new VirtualTime();
         // 创建一个写入后 5 秒自动过期的缓存
         Cache<String, String> cache = Caffeine.newBuilder()
                 // 一个元素将会在其创建或者最近一次被 更新 之后的一段时间后被认定为过期项
@@ -92,7 +95,10 @@ public class TestEviction {
                     }
                 })
                 // 该方法允许你配置缓存的过期元素在没有任何缓存活动时也能被及时清理，扫描周期在 caffeine 内部实现
-                .scheduler(Scheduler.forScheduledExecutorService(Executors.newScheduledThreadPool(1)))
+                // 使用虚拟时间代替 Scheduler.forScheduledExecutorService，推进时间时执行到期的清理任务
+                .scheduler(time.scheduler())
+                .executor(time.executor())
+                .ticker(time)
                 .build();
 
         // 插入数据
@@ -105,12 +111,10 @@ public class TestEviction {
         String value0 = cache.getIfPresent("key0");
         System.out.println("Value for key0: " + value0);
 
-        // 等待 6 秒
-        try {
-            Thread.sleep(6000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        // 虚拟时间前进 6 秒，期间没有任何缓存操作，过期元素由 scheduler 触发的清理任务移除
+        time.advance(Duration.ofSeconds(6));
+        System.out.println("Estimated size after 6 seconds: " + cache.estimatedSize());
+        assertEquals(1, cache.estimatedSize());
 
         // 获取数据
         value = cache.getIfPresent("key1");
@@ -122,17 +126,8 @@ public class TestEviction {
     // 模拟时钟
     @Test
     public void tickerTime() {
-        // 创建自定义的 Ticker 对象，用于模拟时间流逝
-        Ticker ticker = new Ticker() {
-            private long startTime = System.nanoTime();
-
-            @Override
-            public long read() {
-                // 模拟时间流逝，每次调用增加 1 秒
-                startTime += TimeUnit.SECONDS.toNanos(1);
-                return startTime;
-            }
-        };
+        // 使用虚拟时间作为 Ticker 模拟时间流逝，只有调用 advance 时时间才会前进
+        VirtualTime ticker = new VirtualTime();
 
         Cache<String, String> cache = Caffeine.newBuilder()
                 // 创建一个写入后 5 秒自动过期的缓存
@@ -144,9 +139,7 @@ public class TestEviction {
 
         System.out.println(cache.getIfPresent("key1"));
         // 时间流逝 6s
-        for (int i = 0; i < 6; i++) {
-            ticker.read();
-        }
+        ticker.advance(Duration.ofSeconds(6));
         System.out.println(cache.getIfPresent("key1"));
     }
 
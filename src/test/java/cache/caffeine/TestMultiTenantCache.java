@@ -0,0 +1,206 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestMultiTenantCache {
+
+    @Test
+    public void testNoisyTenant() {
+        MultiTenantCache<Integer, String> cache = MultiTenantCache.<Integer, String>newBuilder(1_000)
+                .defaultQuota(100, 800)
+                .build(Caffeine.newBuilder().executor(Runnable::run));
+
+        for (int i = 0; i < 100; i++) {
+            cache.put("quiet", i, "value" + i);
+        }
+        // 吵闹的租户写入大量数据，只能淘汰自己的元素
+        for (int i = 0; i < 10_000; i++) {
+            cache.put("noisy", i, "value" + i);
+        }
+        cache.cleanUp();
+
+        for (int i = 0; i < 100; i++) {
+            assertNotNull(cache.getIfPresent("quiet", i));
+        }
+        MultiTenantCache.Stats quiet = cache.stats("quiet");
+        MultiTenantCache.Stats noisy = cache.stats("noisy");
+        System.out.println(quiet);
+        System.out.println(noisy);
+        assertEquals(100, quiet.weight());
+        assertEquals(100, quiet.hitCount());
+        assertEquals(0, quiet.evictionCount());
+        assertEquals(800, noisy.weight());
+        assertTrue(noisy.evictionCount() >= 10_000 - 800 - noisy.rejectionCount());
+        assertTrue(cache.weightedSize() <= cache.capacity());
+    }
+
+    @Test
+    public void testGuaranteeReserved() {
+        MultiTenantCache<Integer, String> cache = MultiTenantCache.<Integer, String>newBuilder(1_000)
+                .quota("vip", 400, 1_000)
+                .defaultQuota(0, 1_000)
+                .build(Caffeine.newBuilder().executor(Runnable::run));
+
+        // vip 尚未写入，其保底容量也不能被其他租户占用
+        for (int i = 0; i < 2_000; i++) {
+            cache.put("other", i, "value");
+        }
+        assertEquals(600, cache.stats("other").weight());
+        for (int i = 0; i < 400; i++) {
+            assertTrue(cache.put("vip", i, "value"));
+        }
+        cache.cleanUp();
+        assertEquals(400, cache.stats("vip").weight());
+        assertEquals(0, cache.stats("vip").evictionCount());
+        assertEquals(1_000, cache.weightedSize());
+
+        assertThrows(IllegalArgumentException.class, () -> MultiTenantCache.newBuilder(100)
+                .quota("a", 60, 100)
+                .quota("b", 60, 100));
+    }
+
+    // 读取未注册的租户视为未命中，不会注册租户、占用保底容量；移除租户后释放它的元素和保底容量
+    @Test
+    public void testRegisterOnWriteAndDeregister() {
+        MultiTenantCache<Integer, String> cache = MultiTenantCache.<Integer, String>newBuilder(1_000)
+                .defaultQuota(400, 1_000)
+                .build(Caffeine.newBuilder().executor(Runnable::run));
+        for (int tenant = 0; tenant < 10; tenant++) {
+            assertNull(cache.getIfPresent("reader" + tenant, 1));
+            assertNull(cache.stats("reader" + tenant));
+        }
+
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(cache.put("a", i, "value"));
+        }
+        assertEquals(1_000, cache.stats("a").weight());
+
+        assertTrue(cache.deregister("a"));
+        assertFalse(cache.deregister("a"));
+        cache.cleanUp();
+        assertNull(cache.stats("a"));
+        assertNull(cache.getIfPresent("a", 1));
+        assertEquals(0, cache.weightedSize());
+
+        // a 的保底容量已经释放，b 可以使用全部容量
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(cache.put("b", i, "value"));
+        }
+        assertEquals(1_000, cache.stats("b").weight());
+    }
+
+    // 已经存在的 key 不会被 get 重新写入，也不会因此淘汰其他元素
+    @Test
+    public void testNoEvictionWhenPresent() {
+        MultiTenantCache<Integer, String> cache = MultiTenantCache.<Integer, String>newBuilder(1_000)
+                .defaultQuota(0, 10)
+                .build(Caffeine.newBuilder().executor(Runnable::run));
+        for (int i = 0; i < 10; i++) {
+            cache.put("tenant", i, "value" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals("value" + i, cache.get("tenant", i, key -> "reloaded"));
+        }
+        assertEquals(0, cache.stats("tenant").evictionCount());
+        assertEquals(10, cache.stats("tenant").weight());
+    }
+
+    // 与静态分区相比，空闲租户的容量可以被活跃租户使用
+    @Test
+    public void testBetterThanStaticPartitioning() {
+        int tenants = 2_000;
+        long capacity = 200_000;
+        MultiTenantCache<Integer, String> cache = MultiTenantCache.<Integer, String>newBuilder(capacity)
+                .defaultQuota(10, capacity / 10)
+                .build(Caffeine.newBuilder().executor(Runnable::run));
+        for (int tenant = 0; tenant < tenants; tenant++) {
+            cache.put("tenant" + tenant, 0, "value");
+        }
+
+        // 只有 tenant0 活跃，静态分区下它只能使用 capacity / tenants = 100
+        for (int i = 0; i < 100_000; i++) {
+            cache.put("tenant0", i, "value");
+        }
+        MultiTenantCache.Stats active = cache.stats("tenant0");
+        System.out.println(active);
+        assertEquals(capacity / 10, active.weight());
+        assertTrue(active.weight() > capacity / tenants);
+        for (int tenant = 1; tenant < tenants; tenant++) {
+            assertNotNull(cache.getIfPresent("tenant" + tenant, 0));
+        }
+    }
+
+    // 租户达到上限后，一次性的扫描不会冲掉该租户的热点数据
+    @Test
+    public void testFrequencyAdmission() {
+        MultiTenantCache<String, String> cache = MultiTenantCache.<String, String>newBuilder(10_000)
+                .defaultQuota(0, 100)
+                .build(Caffeine.newBuilder().executor(Runnable::run));
+        for (int i = 0; i < 100; i++) {
+            cache.put("tenant", "hot" + i, "value");
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                cache.getIfPresent("tenant", "hot" + i);
+            }
+        }
+
+        int rejected = 0;
+        for (int i = 0; i < 1_000; i++) {
+            if (!cache.get("tenant", "scan" + i, key -> "value").equals("value")) {
+                throw new AssertionError();
+            }
+            if (cache.getIfPresent("tenant", "scan" + i) == null) {
+                rejected++;
+            }
+        }
+        int hot = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.getIfPresent("tenant", "hot" + i) != null) {
+                hot++;
+            }
+        }
+        MultiTenantCache.Stats stats = cache.stats("tenant");
+        System.out.println(stats + ", hot entries retained: " + hot);
+        assertEquals(1_000, rejected);
+        assertEquals(100, hot);
+        assertEquals(1_000, stats.rejectionCount());
+    }
+
+    @Test
+    public void testExpiryAccounting() {
+        AtomicLong nanos = new AtomicLong();
+        MultiTenantCache<Integer, String> cache = MultiTenantCache.<Integer, String>newBuilder(100)
+                .weigher((Integer key, String value) -> value.length())
+                .defaultQuota(10, 100)
+                .build(Caffeine.newBuilder()
+                        .expireAfterWrite(1, TimeUnit.MINUTES)
+                        .ticker(nanos::get)
+                        .executor(Runnable::run));
+        cache.put("a", 1, "12345");
+        cache.put("a", 2, "12345");
+        cache.put("a", 2, "1234567890");
+        assertEquals(15, cache.stats("a").weight());
+        cache.invalidate("a", 1);
+        assertEquals(10, cache.stats("a").weight());
+        assertFalse(cache.put("a", 3, "x".repeat(101)));
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        cache.cleanUp();
+        assertEquals(0, cache.stats("a").weight());
+        assertEquals(1, cache.stats("a").evictionCount());
+        assertEquals(0, cache.weightedSize());
+    }
+
+}
@@ -0,0 +1,126 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestNegativeCache {
+
+    // 不存在的 key 在空结果过期前只查询一次数据源
+    @Test
+    public void testNegativeTtl() {
+        VirtualTime time = new VirtualTime();
+        NegativeCache<Integer, String> cache = NegativeCache.<Integer, String>newBuilder()
+                .negativeTtl(Duration.ofSeconds(10))
+                .expireAfterWrite(Duration.ofMinutes(10))
+                .build(Caffeine.newBuilder().ticker(time).executor(time.executor()));
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 100; i++) {
+            assertNull(cache.get(404, key -> {
+                loads.incrementAndGet();
+                return null;
+            }));
+            assertEquals("1", cache.get(1, key -> {
+                loads.incrementAndGet();
+                return String.valueOf(key);
+            }));
+        }
+        assertEquals(2, loads.get());
+        assertTrue(cache.isNegative(404));
+        NegativeCache.Stats stats = cache.stats();
+        System.out.println(stats);
+        assertEquals(99, stats.hitCount());
+        assertEquals(99, stats.negativeHitCount());
+        assertEquals(2, stats.missCount());
+
+        // 空结果过期后重新查询数据源，正常数据仍然有效
+        time.advance(Duration.ofSeconds(11));
+        cache.cleanUp();
+        assertFalse(cache.isNegative(404));
+        assertEquals(0, cache.negativeCount());
+        assertNull(cache.get(404, key -> {
+            loads.incrementAndGet();
+            return null;
+        }));
+        assertEquals("1", cache.getIfPresent(1));
+        assertEquals(3, loads.get());
+    }
+
+    // 大量不存在的 key 不会挤掉正常数据，空结果数量受单独的上限限制
+    @Test
+    public void testSeparateBudget() {
+        NegativeCache<Integer, Integer> cache = NegativeCache.<Integer, Integer>newBuilder()
+                .maximumSize(100)
+                .maximumNegative(1_000)
+                .build(Caffeine.newBuilder().executor(Runnable::run));
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i);
+        }
+        for (int i = 100; i < 100_000; i++) {
+            cache.get(i, key -> null);
+        }
+        cache.cleanUp();
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, cache.getIfPresent(i));
+        }
+        assertEquals(1_000, cache.negativeCount());
+        assertEquals(1_100, cache.estimatedSize());
+        assertEquals(1_000, cache.stats().negativeStoreCount());
+        assertEquals(98_900, cache.stats().negativeRejectionCount());
+    }
+
+    // 写入覆盖空结果后使用正常数据的过期时间，而不是空结果剩余的过期时间
+    @Test
+    public void testPutReplacesNegative() {
+        VirtualTime time = new VirtualTime();
+        NegativeCache<String, String> cache = NegativeCache.<String, String>newBuilder()
+                .negativeTtl(Duration.ofSeconds(1))
+                .build(Caffeine.newBuilder().ticker(time).executor(time.executor()));
+        assertNull(cache.get("user", key -> null));
+        assertEquals(1, cache.negativeCount());
+
+        cache.put("user", "created");
+        assertEquals(0, cache.negativeCount());
+        time.advance(Duration.ofHours(1));
+        assertEquals("created", cache.getIfPresent("user"));
+
+        cache.invalidate("user");
+        assertNull(cache.get("user", key -> null));
+        cache.invalidate("user");
+        assertEquals(0, cache.negativeCount());
+        assertNotNull(cache.get("user", key -> "loaded"));
+    }
+
+    // 要求未命中 2 次后才缓存空结果，只访问一次的随机 ID 不占用空结果的容量
+    @Test
+    public void testAdmission() {
+        NegativeCache<Integer, Integer> cache = NegativeCache.<Integer, Integer>newBuilder()
+                .negativeAdmission(2)
+                .build(Caffeine.newBuilder().executor(Runnable::run));
+        for (int i = 0; i < 1_000; i++) {
+            cache.get(i, key -> null);
+        }
+        assertTrue(cache.negativeCount() < 50, "negative: " + cache.negativeCount());
+
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            cache.get(-1, key -> {
+                loads.incrementAndGet();
+                return null;
+            });
+        }
+        assertEquals(2, loads.get());
+        assertTrue(cache.isNegative(-1));
+    }
+
+}
@@ -6,6 +6,7 @@ import com.github.benmanes.caffeine.cache.Expiry;
 import org.checkerframework.checker.index.qual.NonNegative;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 
 public class TestReadSourceCode {
@@ -26,7 +27,9 @@ public class TestReadSourceCode {
 
     @Test
     public void doReadTimeWheel() {
+        VirtualTime time = new VirtualTime();
         Cache<String, String> cache2 = Caffeine.newBuilder()
+                .ticker(time)
 //                .expireAfterAccess(5, TimeUnit.SECONDS)
 //                .expireAfterWrite(5, TimeUnit.SECONDS)
                 .expireAfter(new Expiry<>() {
@@ -54,17 +57,9 @@ public class TestReadSourceCode {
                 .build();
 
         cache2.put("key2", "value2");
-        try {
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        time.advance(Duration.ofSeconds(2));
         System.out.println(cache2.getIfPresent("key2"));
-        try {
-            Thread.sleep(4000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        time.advance(Duration.ofSeconds(4));
         System.out.println(cache2.getIfPresent("key2"));
     }
 }
@@ -8,12 +8,18 @@ import org.junit.jupiter.api.Test;
 
 import java.time.Duration;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
 public class TestRefresh {
 
     @Test
-    public void testRefresh() throws InterruptedException {
+    public void testRefresh() {
+        // 使用虚拟时间代替 Thread.sleep，异步的 reload 在推进时间时于当前线程执行
+        VirtualTime time = new VirtualTime();
         LoadingCache<String, String> cache = Caffeine.newBuilder()
                 .maximumSize(10L)
+                .ticker(time)
+                .executor(time.executor())
                 // 虽然在这里配置了写后失效策略和刷新策略，但是刷新策略并不会主动执行，而是在元素被写之后才触发
                 // 这样就不会产生配置了刷新策略导致过期策略中时间被重置的问题
                 // 刷新与驱逐不同的是：驱逐执行期间返回
@@ -33,15 +39,22 @@ public class TestRefresh {
                 });
         cache.put("key", "value");
 
-        // 验证元素是否被刷新
-        Thread.sleep(1100);
+        // 验证元素是否被刷新：超过刷新时间后的第一次读取返回旧值，同时触发异步 reload
+        time.advance(Duration.ofMillis(1100));
         System.out.println(cache.get("key"));
+        assertEquals("value", cache.get("key"));
 
-        // 验证元素触发过期策略
-        Thread.sleep(2100);
+        // 验证元素触发过期策略，reload 在 1.1s 时写入，所以 3.2s 时仍未过期，再次触发 reload
+        time.advance(Duration.ofMillis(2100));
         System.out.println(cache.get("key"));
-        Thread.sleep(100);
+        assertEquals("key-value", cache.get("key"));
+        time.advance(Duration.ofMillis(100));
         System.out.println(cache.get("key"));
+        assertEquals("key-key-value", cache.get("key"));
+
+        // 超过写后失效时间没有读写，元素过期后重新 load
+        time.advance(Duration.ofSeconds(5));
+        assertEquals("KEY", cache.get("key"));
     }
 
 }
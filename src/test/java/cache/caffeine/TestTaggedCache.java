@@ -0,0 +1,157 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestTaggedCache {
+
+    @Test
+    public void testInvalidateByTag() {
+        TaggedCache<String, String> cache = TaggedCache.build(Caffeine.newBuilder().maximumSize(100));
+        cache.put("sku1", "iphone", "product:1", "tenant:a");
+        cache.put("sku2", "case", "product:1", "tenant:b");
+        cache.put("sku3", "ipad", "product:2", "tenant:a");
+        assertEquals("ipad", cache.get("sku3", key -> "other"));
+        assertEquals("mac", cache.get("sku4", key -> "mac", "product:3"));
+
+        assertEquals(2, cache.invalidateByTag("product:1"));
+        assertNull(cache.getIfPresent("sku1"));
+        assertNull(cache.getIfPresent("sku2"));
+        assertEquals("ipad", cache.getIfPresent("sku3"));
+        // sku1 被失效后 tenant:a 下只剩 sku3
+        assertEquals(Set.of("sku3"), cache.keys("tenant:a"));
+        assertEquals(Set.of(), cache.keys("tenant:b"));
+
+        // 重新写入时替换标签
+        cache.put("sku3", "ipad", "product:1");
+        assertEquals(0, cache.invalidateByTag("tenant:a"));
+        assertEquals(Set.of("product:1"), cache.tags("sku3"));
+
+        cache.invalidate("sku3");
+        cache.invalidate("sku4");
+        assertEquals(0, cache.tagCount());
+    }
+
+    @Test
+    public void testGetMergesTags() {
+        TaggedCache<String, String> cache = TaggedCache.build(Caffeine.newBuilder().maximumSize(100));
+        cache.put("sku1", "iphone", "product:1");
+        // 已经存在的元素不会重新加载，但新的标签会被合并
+        assertEquals("iphone", cache.get("sku1", key -> "other", "promo", "product:1"));
+        assertEquals(Set.of("product:1", "promo"), cache.tags("sku1"));
+        assertEquals(Set.of("sku1"), cache.keys("promo"));
+
+        assertEquals(1, cache.invalidateByTag("promo"));
+        assertEquals(0, cache.tagCount());
+    }
+
+    @Test
+    public void testRejectReferenceStrength() {
+        // tagIndex 强引用 key，包装后的 value 被回收时拿不到标签，索引会泄漏
+        assertThrows(IllegalArgumentException.class, () -> TaggedCache.build(Caffeine.newBuilder().weakKeys()));
+        assertThrows(IllegalArgumentException.class, () -> TaggedCache.build(Caffeine.newBuilder().weakValues()));
+        assertThrows(IllegalArgumentException.class, () -> TaggedCache.build(Caffeine.newBuilder().softValues()));
+    }
+
+    @Test
+    public void testIndexCleanedOnEviction() {
+        // 同步执行维护任务，保证驱逐在写入后立即发生
+        TaggedCache<Integer, Integer> cache = TaggedCache.build(Caffeine.newBuilder()
+                .maximumSize(100)
+                .executor(Runnable::run));
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(i, i, "group:" + i % 10, "key:" + i);
+        }
+        cache.cleanUp();
+        assertEquals(100, cache.estimatedSize());
+        // 每个元素一个唯一标签，加上 10 个分组标签，被驱逐元素的标签全部被清理
+        assertEquals(100 + 10, cache.tagCount());
+
+        int total = 0;
+        for (int i = 0; i < 10; i++) {
+            total += cache.keys("group:" + i).size();
+        }
+        assertEquals(100, total);
+    }
+
+    @Test
+    public void testIndexCleanedOnExpiry() {
+        AtomicLong nanos = new AtomicLong();
+        TaggedCache<String, String> cache = TaggedCache.build(Caffeine.newBuilder()
+                .expireAfterWrite(5, TimeUnit.SECONDS)
+                .ticker(nanos::get)
+                .executor(Runnable::run));
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, "value" + i, "tenant:" + i % 3);
+        }
+        assertEquals(3, cache.tagCount());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(6));
+        cache.cleanUp();
+        assertEquals(0, cache.estimatedSize());
+        assertEquals(0, cache.tagCount());
+    }
+
+    /**
+     * 在持续读取的同时失效 10 万个元素的分组，默认 100 万个元素，
+     * 完整规模可以通过 -Dtagged.entries=20000000 -Xmx16g 运行
+     */
+    @Test
+    public void testInvalidateLargeGroupUnderLoad() throws InterruptedException {
+        int entries = Integer.getInteger("tagged.entries", 1_000_000);
+        int groupSize = 100_000;
+        int groups = entries / groupSize;
+        TaggedCache<Integer, Integer> cache = TaggedCache.build(Caffeine.newBuilder()
+                .maximumSize(entries)
+                .initialCapacity(entries));
+        for (int i = 0; i < entries; i++) {
+            cache.put(i, i, "group:" + i / groupSize);
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder reads = new LongAdder();
+        Thread[] readers = new Thread[2];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    cache.getIfPresent(random.nextInt(entries));
+                    reads.increment();
+                }
+            });
+            readers[i].start();
+        }
+
+        for (int group = 0; group < groups; group++) {
+            long start = System.nanoTime();
+            int invalidated = cache.invalidateByTag("group:" + group);
+            long cost = System.nanoTime() - start;
+            assertEquals(groupSize, invalidated);
+            System.out.printf("invalidate %d entries in %.1f ms, remaining %d%n",
+                    invalidated, cost / 1e6, cache.estimatedSize());
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        System.out.println("concurrent reads: " + reads.sum());
+
+        cache.cleanUp();
+        assertEquals(0, cache.estimatedSize());
+        assertEquals(0, cache.tagCount());
+        assertTrue(reads.sum() > 0);
+    }
+
+}
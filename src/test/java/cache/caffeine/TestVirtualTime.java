@@ -0,0 +1,101 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import org.checkerframework.checker.index.qual.NonNegative;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestVirtualTime {
+
+    @Test
+    public void testScheduler() {
+        VirtualTime time = new VirtualTime();
+        Scheduler scheduler = time.scheduler();
+        List<String> executed = new ArrayList<>();
+
+        scheduler.schedule(time.executor(), () -> executed.add("b@" + time.read()), 2, TimeUnit.SECONDS);
+        scheduler.schedule(time.executor(), () -> executed.add("a@" + time.read()), 1, TimeUnit.SECONDS);
+        Future<?> cancelled = scheduler.schedule(time.executor(), () -> executed.add("c"), 3, TimeUnit.SECONDS);
+        // 任务中调度的任务在同一次推进中到期也会被执行
+        scheduler.schedule(time.executor(), () -> scheduler.schedule(time.executor(),
+                () -> executed.add("d@" + time.read()), 1, TimeUnit.SECONDS), 2, TimeUnit.SECONDS);
+        time.executor().execute(() -> executed.add("now@" + time.read()));
+        cancelled.cancel(false);
+        assertEquals(3, time.scheduledCount());
+
+        time.advance(Duration.ofSeconds(5));
+        long second = TimeUnit.SECONDS.toNanos(1);
+        assertEquals(List.of("now@0", "a@" + second, "b@" + 2 * second, "d@" + 3 * second), executed);
+        assertEquals(5 * second, time.read());
+        assertEquals(0, time.scheduledCount());
+        assertEquals(0, time.pendingCount());
+    }
+
+    /**
+     * 100 万个元素的过期时间分布在 1 到 180 分钟，只依靠 scheduler 触发的清理任务（没有任何读写），
+     * 验证时间轮在小时、分钟、秒级之间级联后元素按时过期，3 个小时的虚拟时间在数秒内完成
+     */
+    @Test
+    public void testReplayHoursOfExpiry() {
+        int entries = 1_000_000;
+        int minutes = 180;
+        VirtualTime time = new VirtualTime();
+        Cache<Integer, Integer> cache = Caffeine.newBuilder()
+                .expireAfter(new Expiry<Integer, Integer>() {
+                    @Override
+                    public long expireAfterCreate(Integer key, Integer value, long currentTime) {
+                        return TimeUnit.MINUTES.toNanos(value);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Integer key, Integer value, long currentTime, @NonNegative long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(Integer key, Integer value, long currentTime, @NonNegative long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .ticker(time)
+                .scheduler(time.scheduler())
+                .executor(time.executor())
+                .build();
+        // remaining[m] 为过期时间晚于第 m 分钟的元素数量
+        long[] remaining = new long[minutes + 1];
+        for (int i = 0; i < entries; i++) {
+            int expireMinute = i % minutes + 1;
+            cache.put(i, expireMinute);
+            for (int m = 0; m < expireMinute; m++) {
+                remaining[m]++;
+            }
+        }
+        time.runPending();
+        assertEquals(entries, cache.estimatedSize());
+
+        long start = System.nanoTime();
+        // 每次推进 1 分钟，检查点在每分钟的第 30 秒，避开与过期时间重合的时刻
+        time.advance(Duration.ofSeconds(30));
+        for (int minute = 1; minute <= minutes; minute++) {
+            time.advance(Duration.ofMinutes(1));
+            assertEquals(remaining[minute], cache.estimatedSize(), "minute " + minute);
+        }
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("replayed " + minutes + " minutes of expiry in " + cost + " ms, executed tasks: "
+                + time.executedCount());
+        assertEquals(0, cache.estimatedSize());
+        assertTrue(time.executedCount() >= minutes);
+    }
+
+}
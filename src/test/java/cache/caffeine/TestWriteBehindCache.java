@@ -0,0 +1,313 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestWriteBehindCache {
+
+    // 模拟数据库，记录每一批写入
+    static class RecordingWriter<K, V> implements CacheWriter<K, V> {
+
+        final Map<K, V> store = new ConcurrentHashMap<>();
+
+        final List<Integer> batches = new CopyOnWriteArrayList<>();
+
+        final AtomicBoolean failing = new AtomicBoolean();
+
+        @Override
+        public void writeAll(Map<K, V> entries) {
+            if (failing.get()) {
+                throw new IllegalStateException("database unavailable");
+            }
+            batches.add(entries.size());
+            store.putAll(entries);
+        }
+    }
+
+    @Test
+    public void testCoalesceAndBatch() {
+        RecordingWriter<String, Long> writer = new RecordingWriter<>();
+        WriteBehindCache<String, Long> cache = WriteBehindCache.newBuilder(writer)
+                .batchSize(10)
+                .flushInterval(Duration.ofHours(1))
+                .build(Caffeine.newBuilder().maximumSize(1_000));
+
+        // 计数器累加 1000 次，只会刷写最终值
+        for (int i = 0; i < 1_000; i++) {
+            cache.compute("counter", (key, value) -> value == null ? 1 : value + 1);
+        }
+        for (int i = 0; i < 25; i++) {
+            cache.put("session" + i, (long) i);
+        }
+        cache.flush();
+
+        assertEquals(1_000L, writer.store.get("counter"));
+        assertEquals(26, writer.store.size());
+        assertTrue(writer.batches.stream().allMatch(size -> size <= 10));
+        assertEquals(26, cache.flushedCount());
+        assertEquals(999, cache.coalescedCount());
+        assertEquals(0, cache.pendingCount());
+        assertEquals(0, cache.close(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testFlushByTimeAndSize() throws InterruptedException {
+        RecordingWriter<String, String> writer = new RecordingWriter<>();
+        WriteBehindCache<String, String> cache = WriteBehindCache.newBuilder(writer)
+                .batchSize(100)
+                .flushInterval(Duration.ofMillis(50))
+                .build(Caffeine.newBuilder());
+
+        cache.put("key", "value");
+        awaitFlushed(cache, 1);
+        assertEquals("value", writer.store.get("key"));
+
+        // 达到 batchSize 后不需要等待刷写周期
+        WriteBehindCache<String, String> sized = WriteBehindCache.newBuilder(writer)
+                .batchSize(100)
+                .flushInterval(Duration.ofHours(1))
+                .build(Caffeine.newBuilder());
+        for (int i = 0; i < 100; i++) {
+            sized.put("size" + i, "value");
+        }
+        awaitFlushed(sized, 100);
+        cache.close();
+        sized.close();
+    }
+
+    // 被驱逐的脏数据仍然可以读到，并且最终会刷写
+    @Test
+    public void testDirtyEviction() throws InterruptedException {
+        RecordingWriter<Integer, Integer> writer = new RecordingWriter<>();
+        WriteBehindCache<Integer, Integer> cache = WriteBehindCache.newBuilder(writer)
+                .flushInterval(Duration.ofHours(1))
+                .build(Caffeine.newBuilder().maximumSize(10).executor(Runnable::run));
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i);
+        }
+        cache.cleanUp();
+        // 未刷写时从脏数据中读取，已刷写时从存储中读取，都能读到最新值
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, cache.get(i, writer.store::get));
+        }
+        awaitFlushed(cache, 100);
+        assertEquals(100, writer.store.size());
+        cache.close();
+    }
+
+    @Test
+    public void testFailureAndBackpressure() {
+        RecordingWriter<String, String> writer = new RecordingWriter<>();
+        WriteBehindCache<String, String> cache = WriteBehindCache.newBuilder(writer)
+                .maxPending(10)
+                .flushInterval(Duration.ofHours(1))
+                .build(Caffeine.newBuilder());
+        writer.failing.set(true);
+        for (int i = 0; i < 10; i++) {
+            cache.put("key" + i, "value");
+        }
+        // 存储不可用，脏数据达到上限后拒绝写入
+        assertThrows(IllegalStateException.class, () -> cache.put("overflow", "value"));
+        assertTrue(cache.failureCount() > 0);
+        assertEquals(10, cache.pendingCount());
+
+        writer.failing.set(false);
+        cache.put("recovered", "value");
+        // 写入线程自己刷写了之前的 10 个脏数据
+        assertEquals(10, writer.store.size());
+        assertEquals(0, cache.close(Duration.ofSeconds(5)));
+        assertEquals(11, writer.store.size());
+    }
+
+    @Test
+    public void testBoundedShutdown() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        WriteBehindCache<String, String> cache = WriteBehindCache.newBuilder((Map<String, String> entries) -> release.await())
+                .flushInterval(Duration.ofHours(1))
+                .build(Caffeine.newBuilder());
+        cache.put("key", "value");
+
+        long start = System.nanoTime();
+        int remaining = cache.close(Duration.ofMillis(200));
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        release.countDown();
+        assertEquals(1, remaining);
+        assertTrue(cost < 2_000, "close took " + cost + " ms");
+        assertThrows(IllegalStateException.class, () -> cache.put("key", "value"));
+    }
+
+    // 模拟进程崩溃：第一个实例没有刷写也没有关闭，第二个实例从日志中恢复脏数据
+    @Test
+    public void testJournalRecovery() throws Exception {
+        Path journal = Files.createTempFile("write-behind", ".log");
+        RecordingWriter<String, Long> down = new RecordingWriter<>();
+        down.failing.set(true);
+        WriteBehindCache<String, Long> crashed = WriteBehindCache.newBuilder(down)
+                .flushInterval(Duration.ofHours(1))
+                .journal(journal, WriteBehindCache.Codec.utf8(), WriteBehindCache.Codec.int64())
+                .build(Caffeine.newBuilder());
+        for (int i = 0; i < 100; i++) {
+            crashed.compute("counter" + i % 10, (key, value) -> value == null ? 1 : value + 1);
+        }
+        // 写了一半的尾部记录在恢复时被丢弃
+        Files.write(journal, new byte[]{0, 0, 0, 9, 0}, java.nio.file.StandardOpenOption.APPEND);
+
+        RecordingWriter<String, Long> writer = new RecordingWriter<>();
+        WriteBehindCache<String, Long> recovered = WriteBehindCache.newBuilder(writer)
+                .flushInterval(Duration.ofHours(1))
+                .journal(journal, WriteBehindCache.Codec.utf8(), WriteBehindCache.Codec.int64())
+                .build(Caffeine.newBuilder());
+        assertEquals(10L, recovered.get("counter3", writer.store::get));
+        awaitFlushed(recovered, 10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(10L, writer.store.get("counter" + i));
+        }
+        // 脏数据全部刷写后日志被清空
+        assertEquals(0, recovered.close(Duration.ofSeconds(5)));
+        assertEquals(0, Files.size(journal));
+        Files.delete(journal);
+    }
+
+    // 已经刷写的记录带有标记，崩溃恢复时不会重放，也就不会覆盖存储中更新的数据
+    @Test
+    public void testJournalCheckpoint() throws Exception {
+        Path journal = Files.createTempFile("write-behind", ".log");
+        RecordingWriter<String, String> writer = new RecordingWriter<>();
+        WriteBehindCache<String, String> crashed = WriteBehindCache.newBuilder(writer)
+                .flushInterval(Duration.ofHours(1))
+                .compactThreshold(Long.MAX_VALUE)
+                .journal(journal, WriteBehindCache.Codec.utf8(), WriteBehindCache.Codec.utf8())
+                .build(Caffeine.newBuilder());
+        crashed.put("flushed", "v1");
+        crashed.put("pending", "v1");
+        assertEquals(2, crashed.flush());
+        crashed.put("pending", "v2");
+        // 刷写之后其他进程更新了存储
+        writer.store.put("flushed", "newer");
+
+        WriteBehindCache<String, String> recovered = WriteBehindCache.newBuilder(writer)
+                .flushInterval(Duration.ofHours(1))
+                .journal(journal, WriteBehindCache.Codec.utf8(), WriteBehindCache.Codec.utf8())
+                .build(Caffeine.newBuilder());
+        assertEquals(1, recovered.pendingCount());
+        assertEquals("v2", recovered.getIfPresent("pending"));
+        assertEquals(0, recovered.close(Duration.ofSeconds(5)));
+        assertEquals("newer", writer.store.get("flushed"));
+        assertEquals("v2", writer.store.get("pending"));
+        Files.delete(journal);
+    }
+
+    // 关闭与并发写入互斥：写入要么在关闭前完成并被刷写，要么以 IllegalStateException 失败，日志关闭后不会再被追加
+    @Test
+    public void testCloseWithConcurrentWriters() throws Exception {
+        Path journal = Files.createTempFile("write-behind", ".log");
+        RecordingWriter<String, Long> writer = new RecordingWriter<>();
+        WriteBehindCache<String, Long> cache = WriteBehindCache.newBuilder(writer)
+                .batchSize(50)
+                .journal(journal, WriteBehindCache.Codec.utf8(), WriteBehindCache.Codec.int64())
+                .build(Caffeine.newBuilder());
+        Map<String, Long> acknowledged = new ConcurrentHashMap<>();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        CountDownLatch started = new CountDownLatch(4);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            String key = "key" + t;
+            threads[t] = new Thread(() -> {
+                started.countDown();
+                for (long i = 1; ; i++) {
+                    try {
+                        cache.put(key, i);
+                        acknowledged.put(key, i);
+                    } catch (IllegalStateException e) {
+                        return;
+                    } catch (Throwable e) {
+                        errors.add(e);
+                        return;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        started.await();
+        Thread.sleep(50);
+        assertEquals(0, cache.close(Duration.ofSeconds(5)));
+        for (Thread thread : threads) {
+            thread.join(5_000);
+        }
+        assertTrue(errors.isEmpty(), errors::toString);
+        // 关闭前确认的最后一次写入都已经刷写
+        assertEquals(acknowledged, writer.store);
+        assertEquals(0, Files.size(journal));
+        Files.delete(journal);
+    }
+
+    // 被中断的写入线程不会关闭日志，追加失败的写入回滚脏数据，调用方收到异常的写入不会被刷写
+    @Test
+    public void testInterruptedWriterAndFailedAppend() throws Exception {
+        Path journal = Files.createTempFile("write-behind", ".log");
+        RecordingWriter<String, String> writer = new RecordingWriter<>();
+        WriteBehindCache.Codec<String> utf8 = WriteBehindCache.Codec.utf8();
+        WriteBehindCache<String, String> cache = WriteBehindCache.newBuilder(writer)
+                .flushInterval(Duration.ofHours(1))
+                .journal(journal, utf8, new WriteBehindCache.Codec<String>() {
+                    @Override
+                    public byte[] encode(String value) {
+                        if (value.equals("bad")) {
+                            throw new IllegalArgumentException("unencodable");
+                        }
+                        return utf8.encode(value);
+                    }
+
+                    @Override
+                    public String decode(byte[] bytes) {
+                        return utf8.decode(bytes);
+                    }
+                })
+                .build(Caffeine.newBuilder());
+        Thread.currentThread().interrupt();
+        try {
+            cache.put("a", "1");
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        cache.put("b", "1");
+
+        assertThrows(IllegalArgumentException.class, () -> cache.put("a", "bad"));
+        assertThrows(IllegalArgumentException.class, () -> cache.put("c", "bad"));
+        assertEquals("1", cache.getIfPresent("a"));
+        assertEquals(null, cache.getIfPresent("c"));
+        assertEquals(2, cache.pendingCount());
+        assertEquals(2, cache.writeCount());
+
+        assertEquals(2, cache.flush());
+        assertEquals(Map.of("a", "1", "b", "1"), writer.store);
+        assertEquals(0, cache.close(Duration.ofSeconds(5)));
+        Files.delete(journal);
+    }
+
+    private static void awaitFlushed(WriteBehindCache<?, ?> cache, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.flushedCount() < count) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("flushed " + cache.flushedCount() + " of " + count);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+package cache.caffeine;
+
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 虚拟时间，用于在测试中代替 Thread.sleep 验证过期、刷新和时间轮
+ * <p>
+ * 同时提供 Caffeine 需要的三个时间相关组件：
+ * <ul>
+ *     <li>{@link #read()}：作为 Ticker，只有调用 advance 时才会前进</li>
+ *     <li>{@link #scheduler()}：延迟任务按到期时间保存在优先队列中，虚拟时间经过到期时间时执行</li>
+ *     <li>{@link #executor()}：提交的任务先排队，在 advance 或 {@link #runPending()} 时在调用线程中执行</li>
+ * </ul>
+ * 所有任务都在调用 advance 的线程中按到期时间顺序执行，结果是确定的。
+ * 使用方式：
+ * <pre>{@code
+ * VirtualTime time = new VirtualTime();
+ * Caffeine.newBuilder().ticker(time).scheduler(time.scheduler()).executor(time.executor())
+ * time.advance(Duration.ofHours(1));
+ * }</pre>
+ */
+public class VirtualTime implements Ticker {
+
+    private final PriorityQueue<ScheduledTask> scheduled = new PriorityQueue<>();
+
+    private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+
+    private long nanos;
+
+    private long sequence;
+
+    private long executedTasks;
+
+    public VirtualTime() {
+        this(0);
+    }
+
+    public VirtualTime(long startNanos) {
+        this.nanos = startNanos;
+    }
+
+    @Override
+    public synchronized long read() {
+        return nanos;
+    }
+
+    public Scheduler scheduler() {
+        return (executor, command, delay, unit) -> {
+            ScheduledTask task = new ScheduledTask(executor, command, read() + unit.toNanos(delay));
+            synchronized (this) {
+                task.sequence = sequence++;
+                scheduled.add(task);
+            }
+            return task.future;
+        };
+    }
+
+    public Executor executor() {
+        return command -> {
+            synchronized (this) {
+                pending.add(command);
+            }
+        };
+    }
+
+    public void advance(Duration duration) {
+        advance(duration.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 推进虚拟时间。先执行当前时刻已提交的任务，然后按到期时间依次把时间拨到每个到期的延迟任务并执行，
+     * 最后停在目标时间。任务中再次提交、调度的任务如果在目标时间之前到期，也会在本次推进中执行
+     */
+    public void advance(long duration, TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("duration: " + duration);
+        }
+        runPending();
+        long target;
+        synchronized (this) {
+            target = nanos + unit.toNanos(duration);
+        }
+        while (true) {
+            ScheduledTask task;
+            synchronized (this) {
+                task = scheduled.peek();
+                if (task == null || task.time > target) {
+                    nanos = target;
+                    break;
+                }
+                scheduled.poll();
+                nanos = Math.max(nanos, task.time);
+            }
+            if (!task.future.isCancelled()) {
+                task.executor.execute(task::run);
+            }
+            runPending();
+        }
+        runPending();
+    }
+
+    // 只推进时间，不执行任何任务，用于在 executor 的任务中模拟耗时
+    public synchronized void elapse(Duration duration) {
+        nanos += duration.toNanos();
+    }
+
+    // 在调用线程中执行所有已提交的任务，包括执行期间新提交的任务
+    public void runPending() {
+        while (true) {
+            Runnable command;
+            synchronized (this) {
+                command = pending.poll();
+            }
+            if (command == null) {
+                return;
+            }
+            command.run();
+            synchronized (this) {
+                executedTasks++;
+            }
+        }
+    }
+
+    // 尚未到期的延迟任务数量，不包括已取消的任务
+    public synchronized int scheduledCount() {
+        return (int) scheduled.stream().filter(task -> !task.future.isCancelled()).count();
+    }
+
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    public synchronized long executedCount() {
+        return executedTasks;
+    }
+
+    private static final class ScheduledTask implements Comparable<ScheduledTask> {
+
+        final Executor executor;
+
+        final Runnable command;
+
+        final long time;
+
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        long sequence;
+
+        ScheduledTask(Executor executor, Runnable command, long time) {
+            this.executor = executor;
+            this.command = command;
+            this.time = time;
+        }
+
+        void run() {
+            if (future.isCancelled()) {
+                return;
+            }
+            try {
+                command.run();
+                future.complete(null);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+                throw t;
+            }
+        }
+
+        // 到期时间相同时按调度顺序执行
+        @Override
+        public int compareTo(ScheduledTask other) {
+            int result = Long.compare(time, other.time);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
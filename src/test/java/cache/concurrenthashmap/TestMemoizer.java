@@ -0,0 +1,181 @@
+package cache.concurrenthashmap;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestMemoizer {
+
+    // "Aa" 和 "BB" 的 hashCode 相同，一定会落在同一个桶中
+    private static final String SLOW_KEY = "Aa";
+    private static final String FAST_KEY = "BB";
+
+    @Test
+    public void testBinCollisionStall() throws Exception {
+        ConcurrentHashMap<String, String> map = new ConcurrentHashMap<>();
+        long chmStall = fastKeyLatency(key -> map.computeIfAbsent(key, this::slowLoad));
+
+        Memoizer<String, String> memoizer = new Memoizer<>(this::slowLoad);
+        long memoizerStall = fastKeyLatency(memoizer::get);
+
+        System.out.println("computeIfAbsent 同桶 key 等待时间：" + chmStall + " ms");
+        System.out.println("Memoizer 同桶 key 等待时间：" + memoizerStall + " ms");
+        assertTrue(chmStall >= 300);
+        assertTrue(memoizerStall < 300);
+    }
+
+    // 先开始加载慢 key，加载期间再获取同一个桶中的快 key，返回快 key 的耗时
+    private long fastKeyLatency(Function<String, String> getter) throws Exception {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            executorService.execute(() -> getter.apply(SLOW_KEY));
+            Thread.sleep(50);
+
+            long start = System.nanoTime();
+            getter.apply(FAST_KEY);
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            executorService.shutdown();
+            executorService.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private String slowLoad(String key) {
+        if (SLOW_KEY.equals(key)) {
+            try {
+                // 模拟慢查询
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return key.toUpperCase();
+    }
+
+    @Test
+    public void testSameKeyLoadsOnce() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        Memoizer<String, String> memoizer = new Memoizer<>(key -> {
+            loads.incrementAndGet();
+            return slowLoad(key);
+        });
+
+        int threads = 8;
+        CountDownLatch latch = new CountDownLatch(threads);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executorService.execute(() -> {
+                assertEquals("AA", memoizer.get(SLOW_KEY));
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        executorService.shutdown();
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testFailedLoadIsRemoved() {
+        AtomicInteger loads = new AtomicInteger();
+        Memoizer<String, String> memoizer = new Memoizer<>(key -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IllegalStateException("db down");
+            }
+            return "value";
+        });
+
+        assertThrows(IllegalStateException.class, () -> memoizer.get("key"));
+        assertEquals(0, memoizer.size());
+        assertEquals("value", memoizer.get("key"));
+        assertEquals(2, loads.get());
+
+        // 结果为 null 时与 computeIfAbsent 一致，不会被记录
+        Memoizer<String, String> nullMemoizer = new Memoizer<>(key -> null);
+        assertEquals(null, nullMemoizer.get("key"));
+        assertEquals(0, nullMemoizer.size());
+    }
+
+    @Test
+    public void testRecursiveLoad() {
+        AtomicReference<Memoizer<Integer, Long>> fibonacci = new AtomicReference<>();
+        // 不同 key 的递归加载不会持有任何桶锁
+        fibonacci.set(new Memoizer<>(n -> n <= 1 ? (long) n : fibonacci.get().get(n - 1) + fibonacci.get().get(n - 2)));
+        assertEquals(12586269025L, fibonacci.get().get(50));
+
+        AtomicReference<Memoizer<String, String>> self = new AtomicReference<>();
+        self.set(new Memoizer<>(key -> self.get().get(key)));
+        assertThrows(IllegalStateException.class, () -> self.get().get("key"));
+        assertEquals(0, self.get().size());
+    }
+
+    // 线程 1 加载 A 时需要 B，线程 2 加载 B 时需要 A，其中一个线程发现循环并失败，不会死锁
+    @Test
+    public void testCrossThreadCycle() throws Exception {
+        CountDownLatch bothLoading = new CountDownLatch(2);
+        AtomicReference<Memoizer<String, String>> memoizer = new AtomicReference<>();
+        memoizer.set(new Memoizer<>(key -> {
+            bothLoading.countDown();
+            try {
+                bothLoading.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return key + memoizer.get().get("A".equals(key) ? "B" : "A");
+        }));
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        Future<String> a = executorService.submit(() -> memoizer.get().get("A"));
+        Future<String> b = executorService.submit(() -> memoizer.get().get("B"));
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> {
+            a.get(5, TimeUnit.SECONDS);
+            b.get(5, TimeUnit.SECONDS);
+        });
+        assertTrue(failure.getCause() instanceof IllegalStateException, failure.toString());
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, memoizer.get().size());
+    }
+
+    @Test
+    public void testAsync() {
+        AtomicInteger loads = new AtomicInteger();
+        Memoizer<String, String> memoizer = new Memoizer<>(key -> {
+            loads.incrementAndGet();
+            return slowLoad(key);
+        });
+
+        CompletableFuture<String> first = memoizer.getAsync(SLOW_KEY);
+        CompletableFuture<String> second = memoizer.getAsync(SLOW_KEY);
+        // 一个调用方取消自己的 future 不会影响其他调用方
+        CompletableFuture<String> abandoned = memoizer.getAsync(SLOW_KEY);
+        abandoned.cancel(false);
+        assertEquals("AA", first.join());
+        assertEquals("AA", second.join());
+        assertEquals("AA", memoizer.get(SLOW_KEY));
+        assertEquals(1, loads.get());
+
+        // invalidate 后下一次获取重新加载；取消的只是调用方拿到的副本，占位符中的加载继续进行，不会再次加载
+        memoizer.invalidate(SLOW_KEY);
+        CompletableFuture<String> cancelled = memoizer.getAsync(SLOW_KEY);
+        cancelled.cancel(false);
+        assertEquals("AA", memoizer.getAsync(SLOW_KEY).join());
+        assertEquals(2, loads.get());
+        assertEquals("AA", memoizer.get(SLOW_KEY));
+        assertEquals(2, loads.get());
+    }
+
+}
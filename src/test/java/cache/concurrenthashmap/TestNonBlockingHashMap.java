@@ -0,0 +1,179 @@
+package cache.concurrenthashmap;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 无锁开放寻址哈希表与 ConcurrentHashMap 的对比
+public class TestNonBlockingHashMap {
+
+    private static final int[] THREADS = {4, 16, 64};
+
+    private static final int KEYS = 10_000;
+
+    @Test
+    public void testConcurrentMapSemantics() {
+        NonBlockingHashMap<String, Integer> map = new NonBlockingHashMap<>();
+
+        assertNull(map.put("key1", 1));
+        assertEquals(1, map.put("key1", 2));
+        assertEquals(2, map.putIfAbsent("key1", 3));
+        assertNull(map.replace("key2", 1));
+        assertFalse(map.containsKey("key2"));
+        assertTrue(map.replace("key1", 2, 4));
+        assertFalse(map.remove("key1", 2));
+        assertTrue(map.remove("key1", 4));
+        assertNull(map.get("key1"));
+        assertTrue(map.isEmpty());
+
+        // 写入足够多的元素触发多次扩容
+        for (int i = 0; i < 100_000; i++) {
+            map.put(String.valueOf(i), i);
+        }
+        for (int i = 0; i < 100_000; i += 2) {
+            map.remove(String.valueOf(i));
+        }
+        assertEquals(50_000, map.size());
+        assertEquals(50_000, map.entrySet().size());
+        map.forEach((k, v) -> assertEquals(1, v % 2));
+    }
+
+    @Test
+    public void testLongKey() {
+        NonBlockingHashMapLong<String> map = new NonBlockingHashMapLong<>();
+        for (long i = 0; i < 100_000; i++) {
+            map.put(i, "value" + i);
+        }
+        assertEquals("value0", map.get(0L));
+        assertEquals("value99999", map.get(99_999L));
+        assertEquals(100_000, map.size());
+
+        long sum = 0;
+        PrimitiveIterator.OfLong keys = map.keyIterator();
+        while (keys.hasNext()) {
+            sum += keys.nextLong();
+        }
+        assertEquals(99_999L * 100_000 / 2, sum);
+
+        map.remove(0L);
+        assertNull(map.get(0L));
+        assertEquals(99_999, map.size());
+    }
+
+    // 在扩容的同时并发写入不同的 key，验证没有元素丢失
+    @Test
+    public void testConcurrentResize() throws InterruptedException {
+        NonBlockingHashMap<Integer, Integer> map = new NonBlockingHashMap<>();
+        NonBlockingHashMapLong<Integer> longMap = new NonBlockingHashMapLong<>();
+        int threads = 64;
+        int perThread = 20_000;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            int base = i * perThread;
+            executorService.execute(() -> {
+                for (int j = base; j < base + perThread; j++) {
+                    map.put(j, j);
+                    longMap.put(j, j);
+                }
+            });
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(1, TimeUnit.MINUTES);
+
+        assertEquals(threads * perThread, map.size());
+        assertEquals(threads * perThread, longMap.size());
+        for (int i = 0; i < threads * perThread; i++) {
+            assertEquals(i, map.get(i));
+            assertEquals(i, longMap.get(i));
+        }
+    }
+
+    // TestThreadSafely 中的并发计数，computeIfPresent 基于 replace 的 CAS 重试实现，与 ConcurrentHashMap 结果一致
+    @Test
+    public void testThreadSafely() throws InterruptedException {
+        for (int threads : THREADS) {
+            for (Map<String, Integer> map : List.<Map<String, Integer>>of(new ConcurrentHashMap<>(), new NonBlockingHashMap<>())) {
+                List<Integer> sumList = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    map.put("test", 0);
+                    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+                    for (int j = 0; j < threads; j++) {
+                        executorService.execute(() -> {
+                            for (int k = 0; k < 100; k++) {
+                                map.computeIfPresent("test", (key, value) -> value + 1);
+                            }
+                        });
+                    }
+                    executorService.shutdown();
+                    assertTrue(executorService.awaitTermination(1, TimeUnit.MINUTES));
+                    sumList.add(map.get("test"));
+                }
+
+                long wrongResultCount = sumList.stream().filter(num -> num != threads * 100).count();
+                System.out.println(threads + " 线程 " + map.getClass().getSimpleName() + " 错误数量：" + wrongResultCount);
+                assertEquals(0, wrongResultCount);
+            }
+        }
+    }
+
+    /**
+     * TestPerformance 中的读写负载，线程数扩大到 64，两种 map 执行相同的读写序列。
+     * 耗时只打印不断言，断言两者的结果相同：所有 key 都被写入，并且 value 与 key 对应
+     */
+    @Test
+    public void whenGetPutWithMoreThreads() throws InterruptedException {
+        for (int threads : THREADS) {
+            Map<String, Object> concurrentHashMap = new ConcurrentHashMap<>();
+            Map<String, Object> nonBlockingHashMap = new NonBlockingHashMap<>();
+            long concurrentHashMapAvgRuntime = timeElapseForGetPut(concurrentHashMap, threads);
+            long nonBlockingHashMapAvgRuntime = timeElapseForGetPut(nonBlockingHashMap, threads);
+
+            System.out.println(threads + " threads ConcurrentHashMap AvgRuntime: " + concurrentHashMapAvgRuntime);
+            System.out.println(threads + " threads NonBlockingHashMap AvgRuntime: " + nonBlockingHashMapAvgRuntime);
+            assertEquals(KEYS, concurrentHashMap.size());
+            assertEquals(KEYS, nonBlockingHashMap.size());
+            assertEquals(concurrentHashMap, nonBlockingHashMap);
+            nonBlockingHashMap.forEach((key, value) -> assertEquals(key, String.valueOf(value)));
+        }
+    }
+
+    // 每个线程按不同的步长遍历 KEYS 个 key，读到的值必须是自己或其他线程写入的同一个值
+    private long timeElapseForGetPut(Map<String, Object> map, int threads) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        AtomicInteger wrongReads = new AtomicInteger();
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            int offset = i * 7919;
+            executorService.execute(() -> {
+                for (int j = 0; j < 100_000; j++) {
+                    int value = (offset + j) % KEYS;
+                    String key = String.valueOf(value);
+                    map.put(key, value);
+                    if (!Integer.valueOf(value).equals(map.get(key))) {
+                        wrongReads.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(1, TimeUnit.MINUTES));
+        assertEquals(0, wrongReads.get());
+        return (System.nanoTime() - startTime) / 100_000;
+    }
+
+}
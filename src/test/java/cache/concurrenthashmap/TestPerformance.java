@@ -2,12 +2,14 @@ package cache.concurrenthashmap;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.concurrent.*;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestPerformance {
@@ -26,8 +28,11 @@ public class TestPerformance {
         long concurrentHashMapAvgRuntime =
                 timeElapseForGetPut(concurrentHashMap);
 
-        assertTrue(hashtableAvgRuntime > concurrentHashMapAvgRuntime);
-        assertTrue(syncHashMapAvgRuntime > concurrentHashMapAvgRuntime);
+        // 耗时受机器负载影响，只打印不断言，断言并发读写后的结果是正确的
+        for (Map<String, Object> map : Arrays.asList(hashtable, synchronizedHashMap, concurrentHashMap)) {
+            assertTrue(map.size() > 0 && map.size() <= 10_000);
+            map.forEach((key, value) -> assertEquals(key, String.valueOf(value)));
+        }
         System.out.println("Hashtable AvgRuntime: " + hashtableAvgRuntime);
         System.out.println("SynchronizedHashMap AvgRuntime: " + syncHashMapAvgRuntime);
         System.out.println("ConcurrentHashMap AvgRuntime: " + concurrentHashMapAvgRuntime);
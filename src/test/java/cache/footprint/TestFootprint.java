@@ -0,0 +1,68 @@
+package cache.footprint;
+
+import cache.footprint.ObjectGraphWalker.Category;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class TestFootprint {
+
+    private static final int ENTRIES = 10_000;
+
+    private final FootprintAnalyzer analyzer = new FootprintAnalyzer();
+
+    @Test
+    public void testReport() {
+        System.out.println(FootprintAnalyzer.header());
+        for (CacheConfiguration configuration : CacheConfiguration.values()) {
+            for (int entries : new int[]{1_000, 10_000, 100_000}) {
+                System.out.println(analyzer.analyze(configuration, entries));
+            }
+        }
+    }
+
+    @Test
+    public void testCategories() {
+        FootprintAnalyzer.Report report = analyzer.analyze(CacheConfiguration.CAFFEINE_MAXIMUM_SIZE, ENTRIES);
+
+        // 每个条目都有一个 Caffeine 节点和一个 ConcurrentHashMap 节点，另有少量固定的哨兵等对象
+        long nodes = report.footprint().objects(Category.NODE);
+        assertTrue(nodes >= 2L * ENTRIES && nodes < 2L * ENTRIES + 16, "nodes: " + nodes);
+        // key 和 value 是同一个 Integer 对象
+        assertEquals(ENTRIES, report.footprint().objects(Category.DATA));
+        assertTrue(report.perEntry(Category.SKETCH) > 0);
+        assertTrue(report.perEntry(Category.TABLE) > 0);
+
+        // 无界缓存没有频率草图和缓冲区
+        FootprintAnalyzer.Report unbounded = analyzer.analyze(CacheConfiguration.CAFFEINE_UNBOUNDED_STATS, ENTRIES);
+        assertEquals(0, unbounded.footprint().bytes(Category.SKETCH));
+        assertEquals(0, unbounded.footprint().bytes(Category.BUFFER));
+    }
+
+    // 单条目开销超过基线 5% 时失败，基线按压缩指针开启时的对象布局记录
+    @Test
+    public void testRegression() throws IOException {
+        assumeTrue(ObjectGraphWalker.referenceSize() == 4, "baseline is recorded with compressed oops");
+
+        Properties baseline = new Properties();
+        try (InputStream in = getClass().getResourceAsStream("/footprint/baseline.properties")) {
+            baseline.load(in);
+        }
+
+        List<FootprintAnalyzer.Report> reports = new ArrayList<>();
+        for (CacheConfiguration configuration : CacheConfiguration.values()) {
+            reports.add(analyzer.analyze(configuration, ENTRIES));
+        }
+        List<String> regressions = FootprintAnalyzer.checkRegression(reports, baseline, 0.05);
+        assertTrue(regressions.isEmpty(), String.join("\n", regressions));
+    }
+
+}
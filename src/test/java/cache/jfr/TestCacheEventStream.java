@@ -0,0 +1,46 @@
+package cache.jfr;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+public class TestCacheEventStream {
+
+    // 通过 RecordingStream 实时消费事件
+    @Test
+    public void testLiveDashboard() throws InterruptedException {
+        try (CacheEventStream stream = CacheEventStream.start(Duration.ofMillis(500), System.out::println)) {
+            CacheInstrumentation instrumentation = CacheInstrumentation.named("live");
+            Cache<String, String> cache = instrumentation.instrument(Caffeine.newBuilder().maximumSize(10).build());
+            for (int i = 0; i < 5; i++) {
+                cache.get("key" + i, key -> {
+                    sleep(20);
+                    return key;
+                });
+            }
+
+            // 事件在 flush 时才会被消费，默认约每秒一次
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (System.nanoTime() < deadline) {
+                CacheDashboard.Metrics metrics = stream.dashboard().metrics("live");
+                if (metrics != null && metrics.loadCount() == 5) {
+                    return;
+                }
+                Thread.sleep(100);
+            }
+            throw new AssertionError("events were not streamed: " + stream.dashboard());
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
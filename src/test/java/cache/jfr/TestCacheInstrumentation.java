@@ -0,0 +1,158 @@
+package cache.jfr;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestCacheInstrumentation {
+
+    @Test
+    public void testRecording() throws Exception {
+        Path file = Files.createTempFile("cache", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(CacheEvents.LOAD).withThreshold(Duration.ZERO);
+            recording.enable(CacheEvents.REFRESH).withThreshold(Duration.ZERO);
+            recording.enable(CacheEvents.EVICTION_BATCH);
+            recording.enable(CacheEvents.MAINTENANCE).withThreshold(Duration.ZERO);
+            recording.enable(CacheEvents.LOCK_WAIT);
+            recording.enable(CacheEvents.SLOW_OPERATION);
+            recording.start();
+
+            caffeineOperations();
+            caffeineLoadingOperations();
+            guavaOperations();
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        CacheDashboard dashboard = new CacheDashboard();
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        for (RecordedEvent event : events) {
+            String name = event.getEventType().getName();
+            if (!name.startsWith("cache.")) {
+                continue;
+            }
+            dashboard.accept(event);
+            // 只有慢操作事件带有栈信息
+            if (CacheEvents.SLOW_OPERATION.equals(name)) {
+                assertNotNull(event.getStackTrace());
+            } else {
+                assertNull(event.getStackTrace());
+            }
+        }
+        System.out.println(dashboard);
+
+        CacheDashboard.Metrics caffeine = dashboard.metrics("caffeine");
+        assertEquals(101, caffeine.loadCount());
+        // 加载 101 个元素，最大容量 50，驱逐 51 个，同一次维护任务中的驱逐被合并为一批
+        assertEquals(51, caffeine.evictedEntries());
+        assertTrue(caffeine.evictionBatches() < caffeine.evictedEntries());
+        assertTrue(caffeine.maintenanceCount() > 0);
+        assertTrue(caffeine.slowOperations() >= 1);
+
+        CacheDashboard.Metrics loading = dashboard.metrics("caffeine-loading");
+        assertEquals(1, loading.loadCount());
+        // 第二个线程在 computeIfAbsent 中等待第一个线程完成加载
+        assertTrue(loading.lockWaitCount() >= 1);
+        assertTrue(loading.maxLockWait().toMillis() >= 100);
+
+        CacheDashboard.Metrics guava = dashboard.metrics("guava");
+        assertEquals(1, guava.loadCount());
+        // 第二个线程在 lockedGetOrLoad 中等待第一个线程完成加载
+        assertTrue(guava.lockWaitCount() >= 1);
+        assertTrue(guava.maxLockWait().toMillis() >= 100);
+    }
+
+    private void caffeineOperations() {
+        CacheInstrumentation instrumentation = CacheInstrumentation.named("caffeine")
+                .stackTraceThreshold(Duration.ofMillis(50));
+        // 先把维护任务暂存起来，写入完成后再统一执行，保证测试结果确定
+        List<Runnable> pending = new ArrayList<>();
+        Cache<String, String> cache = instrumentation.instrument(Caffeine.newBuilder()
+                .maximumSize(50)
+                .executor(instrumentation.executor(pending::add))
+                .recordStats(instrumentation.statsCounter(ConcurrentStatsCounter::new))
+                .build());
+
+        for (int i = 0; i < 100; i++) {
+            cache.get("key" + i, key -> "value" + key);
+        }
+        cache.get("slow", key -> {
+            sleep(100);
+            return "value";
+        });
+        pending.forEach(Runnable::run);
+        cache.cleanUp();
+    }
+
+    private void caffeineLoadingOperations() throws InterruptedException {
+        CacheInstrumentation instrumentation = CacheInstrumentation.named("caffeine-loading");
+        com.github.benmanes.caffeine.cache.LoadingCache<String, String> cache = instrumentation.instrument(
+                Caffeine.newBuilder()
+                        .maximumSize(1000)
+                        .executor(instrumentation.executor(Runnable::run))
+                        .build(instrumentation.loader(key -> {
+                            sleep(200);
+                            return key.toUpperCase();
+                        })));
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        executorService.execute(() -> cache.get("key"));
+        sleep(20);
+        executorService.execute(() -> cache.get("key"));
+        executorService.shutdown();
+        executorService.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private void guavaOperations() throws InterruptedException {
+        CacheInstrumentation instrumentation = CacheInstrumentation.named("guava");
+        LoadingCache<String, String> cache = instrumentation.instrument(CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .build(instrumentation.loader(new CacheLoader<String, String>() {
+                    @Override
+                    public String load(String key) {
+                        sleep(200);
+                        return key.toUpperCase();
+                    }
+                })));
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        executorService.execute(() -> cache.getUnchecked("key"));
+        sleep(20);
+        executorService.execute(() -> cache.getUnchecked("key"));
+        executorService.shutdown();
+        executorService.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}